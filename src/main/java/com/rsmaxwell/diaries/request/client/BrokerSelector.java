@@ -0,0 +1,186 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.diaries.common.config.MqttConfig;
+
+/**
+ * Chooses the order in which to try a list of brokers: round-robin, or by the least TCP connect latency.
+ *
+ * Brokers which recently failed are moved to the end of the order (rather than dropped, so they are still tried when
+ * every broker is in trouble) until the cooldown has passed or they are seen to be healthy again.
+ *
+ * The list comes from the optional "servers" array in the "mqtt" section of the configuration file, and the strategy
+ * from the optional "balance" field ("round-robin" or "least-latency"). Without them the single "server" is used.
+ */
+public class BrokerSelector {
+
+	public enum Strategy {
+		ROUND_ROBIN, LEAST_LATENCY
+	}
+
+	public static final int PROBE_TIMEOUT = 500;
+	public static final long FAILURE_COOLDOWN = 30_000;
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	private final List<String> brokers;
+	private final Strategy strategy;
+
+	// Start each process at a different broker, so one-shot requestors are spread across them too
+	private final AtomicInteger next = new AtomicInteger(ThreadLocalRandom.current().nextInt(1 << 16));
+	private final Map<String, Long> failures = new ConcurrentHashMap<String, Long>();
+
+	public BrokerSelector(List<String> brokers, Strategy strategy) {
+		if (brokers.isEmpty()) {
+			throw new IllegalArgumentException("no brokers");
+		}
+		this.brokers = List.copyOf(brokers);
+		this.strategy = strategy;
+	}
+
+	public static BrokerSelector read(String filename, MqttConfig mqtt) throws IOException {
+
+		List<String> brokers = new ArrayList<String>();
+		Strategy strategy = Strategy.ROUND_ROBIN;
+
+		JsonNode node = mapper.readTree(new File(filename)).path("mqtt");
+		for (JsonNode server : node.path("servers")) {
+			brokers.add(server.asText());
+		}
+		if (brokers.isEmpty() && mqtt.getServer() != null) {
+			brokers.add(mqtt.getServer());
+		}
+
+		String balance = node.path("balance").asText("round-robin");
+		if (balance.equalsIgnoreCase("least-latency")) {
+			strategy = Strategy.LEAST_LATENCY;
+		} else if (!balance.equalsIgnoreCase("round-robin")) {
+			throw new IOException(String.format("unexpected balance: %s", balance));
+		}
+
+		return new BrokerSelector(brokers, strategy);
+	}
+
+	public List<String> getBrokers() {
+		return brokers;
+	}
+
+	/**
+	 * The brokers in the order they should be tried
+	 */
+	public List<String> order() {
+
+		List<String> order = new ArrayList<String>(brokers.size());
+
+		if (strategy == Strategy.ROUND_ROBIN) {
+			int start = Math.floorMod(next.getAndIncrement(), brokers.size());
+			for (int i = 0; i < brokers.size(); i++) {
+				order.add(brokers.get((start + i) % brokers.size()));
+			}
+		} else {
+			Map<String, Long> latencies = probeAll();
+			order.addAll(brokers);
+			order.sort(Comparator.comparing(latencies::get));
+		}
+
+		// Keep the order, but try the healthy brokers first
+		long now = System.currentTimeMillis();
+		List<String> healthy = new ArrayList<String>();
+		List<String> failed = new ArrayList<String>();
+		for (String broker : order) {
+			Long failedAt = failures.get(broker);
+			if (failedAt != null && now - failedAt < FAILURE_COOLDOWN) {
+				failed.add(broker);
+			} else {
+				healthy.add(broker);
+			}
+		}
+		healthy.addAll(failed);
+		return healthy;
+	}
+
+	public void markFailed(String broker) {
+		failures.put(broker, System.currentTimeMillis());
+	}
+
+	public void markHealthy(String broker) {
+		failures.remove(broker);
+	}
+
+	public boolean isFailed(String broker) {
+		Long failedAt = failures.get(broker);
+		return failedAt != null && System.currentTimeMillis() - failedAt < FAILURE_COOLDOWN;
+	}
+
+	private Map<String, Long> probeAll() {
+
+		Map<String, CompletableFuture<Long>> futures = new HashMap<String, CompletableFuture<Long>>();
+		for (String broker : brokers) {
+			futures.put(broker, CompletableFuture.supplyAsync(() -> probe(broker, PROBE_TIMEOUT)));
+		}
+
+		Map<String, Long> latencies = new HashMap<String, Long>();
+		for (String broker : brokers) {
+			long latency = futures.get(broker).join();
+			if (latency < 0) {
+				markFailed(broker);
+				latency = Long.MAX_VALUE;
+			} else {
+				markHealthy(broker);
+			}
+			latencies.put(broker, latency);
+		}
+		return latencies;
+	}
+
+	/**
+	 * The time taken to open a TCP connection to the broker, in nanoseconds, or -1 if it could not be reached
+	 */
+	public static long probe(String broker, int timeout) {
+		try {
+			URI uri = new URI(broker);
+			int port = uri.getPort();
+			if (port < 0) {
+				port = defaultPort(uri.getScheme());
+			}
+
+			long start = System.nanoTime();
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress(uri.getHost(), port), timeout);
+			}
+			return System.nanoTime() - start;
+
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private static int defaultPort(String scheme) {
+		switch (scheme) {
+		case "ssl":
+			return 8883;
+		case "ws":
+			return 80;
+		case "wss":
+			return 443;
+		default:
+			return 1883;
+		}
+	}
+}
@@ -0,0 +1,244 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
+import org.eclipse.paho.mqttv5.client.MqttClientException;
+import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
+import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
+import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
+import org.eclipse.paho.mqttv5.common.MqttException;
+import org.eclipse.paho.mqttv5.common.packet.MqttReturnCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rsmaxwell.diaries.common.config.MqttConfig;
+import com.rsmaxwell.diaries.common.config.User;
+import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
+
+/**
+ * An MQTT connection to the broker, with the RPC instance which uses it. Every connect starts a clean session and
+ * subscribes to the response topic.
+ *
+ * The broker is chosen by a {@link BrokerSelector}. Paho tries the brokers in the selector's order. Only brokers
+ * which could not be reached are marked as failed; a refusal such as bad credentials is not a reason to avoid a
+ * broker. After the first connect a monitor checks the connection every second: when it has been lost the connection
+ * lost listeners are told once (so calls whose replies will never arrive can be failed) and the connection is
+ * re-established on the healthiest broker.
+ *
+ * The connection allows the broker to use topic aliases for the messages it sends, so replies need not repeat
+ * "response/&lt;clientID&gt;". Paho aliases outgoing topics by itself when the broker's CONNACK allows it.
+ */
+public class Connection {
+
+	private static final Logger log = LoggerFactory.getLogger(Connection.class);
+
+	public static final int CONNECTION_TIMEOUT = 5;
+	public static final int TOPIC_ALIAS_MAXIMUM = 16;
+	public static final long MONITOR_INTERVAL = 1;
+
+	private final MqttConfig mqtt;
+	private final String clientID;
+	private MqttAsyncClient client;
+	private RemoteProcedureCall rpc;
+
+	private BrokerSelector brokers;
+	private boolean topicAliases = true;
+	private String currentBroker;
+	private ScheduledExecutorService monitor;
+	private volatile boolean connected = false;
+	private volatile boolean lost = false;
+	private volatile boolean closing = false;
+	private final List<Runnable> connectionLostListeners = new CopyOnWriteArrayList<Runnable>();
+
+	public Connection(MqttConfig mqtt, String clientID) throws Exception {
+		this.mqtt = mqtt;
+		this.clientID = clientID;
+
+		if (mqtt.getServer() != null) {
+			brokers = new BrokerSelector(List.of(mqtt.getServer()), BrokerSelector.Strategy.ROUND_ROBIN);
+		}
+	}
+
+	public void setBrokers(BrokerSelector brokers) {
+		this.brokers = brokers;
+	}
+
+	/**
+	 * Whether the broker may use topic aliases for the replies it sends. This does not affect the requests: Paho
+	 * aliases outgoing topics whenever the broker's CONNACK allows it, and has no option to stop.
+	 */
+	public void setTopicAliases(boolean topicAliases) {
+		this.topicAliases = topicAliases;
+	}
+
+	/**
+	 * Called, on the monitor thread, when the connection has been found to be lost and before reconnecting
+	 */
+	public void addConnectionLostListener(Runnable listener) {
+		connectionLostListeners.add(listener);
+	}
+
+	public synchronized void connect() throws Exception {
+
+		if (brokers == null || brokers.getBrokers().isEmpty()) {
+			throw new Exception("No broker configured: set mqtt.server or mqtt.servers");
+		}
+
+		// The client's own server URI is only a default, since the connect options list every broker
+		if (client == null) {
+			MqttClientPersistence persistence = new MqttDefaultFilePersistence();
+			client = new MqttAsyncClient(brokers.getBrokers().get(0), clientID, persistence);
+			rpc = new RemoteProcedureCall(client, String.format("response/%s", clientID));
+		}
+
+		User user = mqtt.getUser();
+		List<String> order = brokers.order();
+
+		MqttConnectionOptions connOpts = new MqttConnectionOptions();
+		connOpts.setUserName(user.getUsername());
+		connOpts.setPassword(user.getPassword().getBytes());
+		connOpts.setServerURIs(order.toArray(new String[0]));
+		connOpts.setConnectionTimeout(CONNECTION_TIMEOUT);
+		if (topicAliases) {
+			connOpts.setTopicAliasMaximum(TOPIC_ALIAS_MAXIMUM);
+		}
+
+		log.debug("Connecting to brokers: {} as '{}'", order, clientID);
+		try {
+			client.connect(connOpts).waitForCompletion();
+		} catch (MqttException e) {
+			if (isUnreachable(e)) {
+				for (String broker : order) {
+					brokers.markFailed(broker);
+				}
+			}
+			throw e;
+		}
+
+		// Paho tried the brokers in order, so the ones before the current broker could not be reached
+		currentBroker = client.getCurrentServerURI();
+		for (String broker : order) {
+			if (broker.equals(currentBroker)) {
+				break;
+			}
+			brokers.markFailed(broker);
+		}
+		brokers.markHealthy(currentBroker);
+
+		log.debug("Client {} connected to {}", clientID, currentBroker);
+
+		// Subscribe to the responseTopic
+		rpc.subscribeToResponseTopic();
+
+		connected = true;
+		lost = false;
+		startMonitor(MONITOR_INTERVAL, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * True when the broker could not be reached (or is unavailable), rather than when it refused the connection
+	 */
+	static boolean isUnreachable(MqttException e) {
+		switch (e.getReasonCode()) {
+		case MqttClientException.REASON_CODE_SERVER_CONNECT_ERROR:
+		case MqttClientException.REASON_CODE_CLIENT_TIMEOUT:
+		case MqttClientException.REASON_CODE_CONNECTION_LOST:
+		case MqttClientException.REASON_CODE_BROKER_UNAVAILABLE:
+		case MqttReturnCode.RETURN_CODE_SERVER_UNAVAILABLE:
+		case MqttReturnCode.RETURN_CODE_SERVER_BUSY:
+		case MqttReturnCode.RETURN_CODE_SERVER_SHUTTING_DOWN:
+		case MqttReturnCode.RETURN_CODE_USE_ANOTHER_SERVER:
+		case MqttReturnCode.RETURN_CODE_SERVER_MOVED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Check the connection every interval, and reconnect (to another broker if need be) when it has been lost. This is
+	 * started by the first connect; call it beforehand to choose a different interval.
+	 */
+	public synchronized void startMonitor(long interval, TimeUnit unit) {
+
+		if (monitor != null) {
+			return;
+		}
+
+		monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, String.format("monitor-%s", clientID));
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		monitor.scheduleWithFixedDelay(() -> {
+			if (closing || !connected || client.isConnected()) {
+				return;
+			}
+
+			// Replies to requests sent on the lost connection will not arrive. Later attempts to reconnect are not
+			// new losses, so the listeners are told once
+			if (!lost) {
+				lost = true;
+				log.warn("Client {} lost its connection to {}", clientID, currentBroker);
+				brokers.markFailed(currentBroker);
+
+				for (Runnable listener : connectionLostListeners) {
+					try {
+						listener.run();
+					} catch (RuntimeException e) {
+						log.warn("Client {} connection lost listener failed: {}", clientID, e.getMessage());
+					}
+				}
+			}
+
+			try {
+				connect();
+			} catch (Exception e) {
+				log.warn("Client {} could not reconnect: {}", clientID, e.getMessage());
+			}
+		}, interval, interval, unit);
+	}
+
+	public void disconnect() throws Exception {
+		closing = true;
+		if (monitor != null) {
+			monitor.shutdownNow();
+		}
+		if (client == null) {
+			return;
+		}
+		if (client.isConnected()) {
+			client.disconnect().waitForCompletion();
+		}
+		client.close();
+		log.debug("Client {} disconnected", clientID);
+	}
+
+	public String getCurrentBroker() {
+		return currentBroker;
+	}
+
+	public String getClientID() {
+		return clientID;
+	}
+
+	/**
+	 * The Paho client, once {@link #connect} has been called
+	 */
+	public MqttAsyncClient getClient() {
+		return client;
+	}
+
+	/**
+	 * The RPC instance, once {@link #connect} has been called
+	 */
+	public RemoteProcedureCall getRpc() {
+		return rpc;
+	}
+}
@@ -0,0 +1,264 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.rsmaxwell.diaries.request.index.PageIndex;
+import com.rsmaxwell.diaries.request.log.RequestLog;
+import com.rsmaxwell.diaries.request.model.Diary;
+import com.rsmaxwell.diaries.request.model.Page;
+import com.rsmaxwell.diaries.request.record.RpcRecorder;
+import com.rsmaxwell.mqtt.rpc.common.Request;
+import com.rsmaxwell.mqtt.rpc.common.Response;
+import com.rsmaxwell.mqtt.rpc.common.Status;
+import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
+
+/**
+ * Typed access to the diaries responder over a {@link RemoteProcedureCall}.
+ *
+ * Concurrent identical read requests (see {@link #COALESCABLE}) share a single outstanding round trip, and every
+ * caller receives the same, unmodifiable, decoded result. Mutating requests are always sent individually.
+ *
+ * Requests are sent on the {@link Lanes} for their {@link Priority}; unless a priority is given they are
+ * interactive.
+ *
+ * When the DIARIES_RECORD environment variable names a file, every request and response is appended to it by an
+ * {@link RpcRecorder}.
+ */
+public class DiariesClient implements Closeable {
+
+	public static final Set<String> COALESCABLE = Set.of("getDiaries", "getPages");
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	// @formatter:off
+	static private ObjectMapper canonicalMapper = JsonMapper.builder()
+			.enable(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY)
+			.enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS)
+			.build();
+	// @formatter:on
+
+	private final Lanes lanes;
+	private final String accessToken;
+
+	private final RpcRecorder recorder;
+	private final RequestLog requestLog = new RequestLog();
+	private PageIndex pageIndex;
+
+	private final SingleFlight<String, Object> flights = new SingleFlight<String, Object>();
+
+	public interface Decoder<T> {
+		T decode(Object payload) throws Exception;
+	}
+
+	public DiariesClient(RemoteProcedureCall rpc, String requestTopic, String accessToken) throws IOException {
+		this(new Lanes(rpc, requestTopic), accessToken);
+	}
+
+	/**
+	 * A client on a connected {@link Connection}, whose outstanding calls fail when the connection is lost
+	 */
+	public DiariesClient(Connection connection, String requestTopic, String accessToken) throws IOException {
+		this(connection.getRpc(), requestTopic, accessToken);
+		connection.addConnectionLostListener(this::abandonPending);
+	}
+
+	public DiariesClient(Lanes lanes, String accessToken) throws IOException {
+		this.lanes = lanes;
+		this.accessToken = accessToken;
+		this.recorder = RpcRecorder.fromEnvironment();
+	}
+
+	/**
+	 * Whether the function only reads, and so is safe to send again. False when the function is not known.
+	 */
+	public static boolean isRead(String function) {
+		return function != null && COALESCABLE.contains(function);
+	}
+
+	/**
+	 * Keep the index up to date with every list of pages fetched
+	 */
+	public void setPageIndex(PageIndex pageIndex) {
+		this.pageIndex = pageIndex;
+	}
+
+	/**
+	 * Fail every request still waiting for its response, e.g. because the connection it was sent on has been lost
+	 */
+	public void abandonPending() {
+		lanes.abandon();
+	}
+
+	public String getAccessToken() {
+		return accessToken;
+	}
+
+	public Lanes getLanes() {
+		return lanes;
+	}
+
+	/**
+	 * The number of requests either waiting for a lane or waiting for their response
+	 */
+	public int getPending() {
+		int pending = 0;
+		for (Priority priority : Priority.values()) {
+			Lane lane = lanes.get(priority);
+			pending += lane.getInFlight() + lane.getQueued();
+		}
+		return pending;
+	}
+
+	/**
+	 * The number of requests sent whose reply has not arrived, including those which have timed out
+	 */
+	public int getUnanswered() {
+		int unanswered = 0;
+		for (Priority priority : Priority.values()) {
+			unanswered += lanes.get(priority).getUnanswered();
+		}
+		return unanswered;
+	}
+
+	public List<Diary> getDiaries() throws Exception {
+		return getDiaries(Priority.INTERACTIVE);
+	}
+
+	public List<Diary> getDiaries(Priority priority) throws Exception {
+
+		Map<String, Object> args = new TreeMap<String, Object>();
+		args.put("accessToken", accessToken);
+
+		return query("getDiaries", args, priority, payload -> {
+			List<Diary> diaries = new ArrayList<Diary>();
+			for (Map<?, ?> map : toListOfMaps(payload)) {
+				diaries.add(new Diary(map));
+			}
+			return Collections.unmodifiableList(diaries);
+		});
+	}
+
+	public List<Page> getPages(Long diaryId) throws Exception {
+		return getPages(diaryId, Priority.INTERACTIVE);
+	}
+
+	public List<Page> getPages(Long diaryId, Priority priority) throws Exception {
+
+		Map<String, Object> args = new TreeMap<String, Object>();
+		args.put("diary", diaryId);
+
+		return query("getPages", args, priority, payload -> {
+			List<Page> pages = new ArrayList<Page>();
+			for (Map<?, ?> map : toListOfMaps(payload)) {
+				pages.add(new Page(map));
+			}
+			if (pageIndex != null) {
+				pageIndex.update(diaryId, pages);
+			}
+			return Collections.unmodifiableList(pages);
+		});
+	}
+
+	/**
+	 * Send a read-only request, sharing the round trip with any identical request of the same priority which is already
+	 * in flight. An interactive request never joins a bulk one, which could be waiting behind other bulk requests.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T query(String function, Map<String, Object> args, Priority priority, Decoder<T> decoder) throws Exception {
+
+		if (!COALESCABLE.contains(function)) {
+			throw new Exception(String.format("request '%s' cannot be coalesced", function));
+		}
+
+		String key = key(function, args, priority);
+
+		Request request = new Request(function);
+		for (Map.Entry<String, Object> entry : args.entrySet()) {
+			request.put(entry.getKey(), entry.getValue());
+		}
+
+		return (T) flights.execute(key, () -> {
+			Response response = request(request, priority);
+			Status status = response.getStatus();
+			if (!status.isOk()) {
+				throw new StatusException(status);
+			}
+			return decoder.decode(response.getPayload());
+		});
+	}
+
+	/**
+	 * The coalescing key: the priority, the function name and the arguments in a canonical order
+	 */
+	static String key(String function, Map<String, Object> args, Priority priority) throws Exception {
+		return priority + ":" + function + canonicalMapper.writeValueAsString(args);
+	}
+
+	/**
+	 * Send a request on its own round trip, and wait for the response
+	 */
+	public Response request(Request request) throws Exception {
+		return request(request, Priority.INTERACTIVE);
+	}
+
+	public Response request(Request request, Priority priority) throws Exception {
+
+		Lane lane = lanes.get(priority);
+		String function = request.getFunction();
+
+		// Send the request as a json string
+		byte[] bytes = mapper.writeValueAsBytes(request);
+		long id = requestLog.begin(function, bytes);
+		long start = System.nanoTime();
+		try {
+			long recordId = (recorder == null) ? 0 : recorder.recordRequest(lane.getTopic(), function, bytes);
+
+			// Wait for the response to arrive
+			Response response = lane.call(bytes);
+			if (recorder != null) {
+				recorder.recordResponse(recordId, mapper.writeValueAsBytes(response));
+			}
+
+			requestLog.end(id, response.isOk(), System.nanoTime() - start, response.getPayload());
+			return response;
+
+		} catch (Exception e) {
+			requestLog.fail(id, e);
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (recorder != null) {
+			recorder.close();
+		}
+	}
+
+	private static List<Map<?, ?>> toListOfMaps(Object result) throws Exception {
+
+		if (!(result instanceof List<?>)) {
+			throw new Exception(String.format("Unexpected type: %s", result.getClass().getSimpleName()));
+		}
+
+		List<Map<?, ?>> maps = new ArrayList<Map<?, ?>>();
+		for (Object item : (List<?>) result) {
+			if (!(item instanceof Map)) {
+				throw new Exception(String.format("Unexpected type: %s", item.getClass().getSimpleName()));
+			}
+			maps.add((Map<?, ?>) item);
+		}
+		return maps;
+	}
+}
@@ -0,0 +1,217 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.rsmaxwell.mqtt.rpc.common.Response;
+import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
+
+/**
+ * The path taken by one class of requests: the topic they are sent on, and the number of them which may be in flight
+ * at once.
+ *
+ * Callers beyond the budget wait, in arrival order, in the lane's own queue, so requests in one lane never wait
+ * behind those in another for a permit. A lane may also be told to {@link #yieldTo} another: while the other lane
+ * has anything in flight or queued, this lane admits no more than a smaller budget.
+ *
+ * Each response is waited for on a separate thread, for at most the lane's timeout, so that a reply which never
+ * arrives cannot hold a permit for ever, and so that {@link #abandon} can release every caller when the connection
+ * the requests were sent on has been lost. The waiting thread is interrupted when its caller gives up, so a lost
+ * reply does not keep a thread; instead it is counted, and {@link #getUnanswered} includes it for as long as the lane
+ * exists: if that keeps growing, replies are being lost.
+ */
+public class Lane {
+
+	public static final long DEFAULT_TIMEOUT = 30_000;
+
+	/**
+	 * Sends one request and waits for its response
+	 */
+	public interface Sender {
+		Response send(String topic, byte[] bytes) throws Exception;
+	}
+
+	private static final ExecutorService waiters = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "lane-waiter");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final Sender sender;
+	private final String topic;
+	private final int budget;
+	private long timeout = DEFAULT_TIMEOUT;
+
+	private final ReentrantLock lock = new ReentrantLock(true);
+	private final Condition admitted = lock.newCondition();
+	private volatile int inFlight = 0;
+	private volatile int queued = 0;
+
+	private Lane priority;
+	private int yieldBudget;
+	private final List<Lane> yielding = new CopyOnWriteArrayList<Lane>();
+
+	private final Set<Future<Response>> pending = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger timedOut = new AtomicInteger();
+
+	public Lane(RemoteProcedureCall rpc, String topic, int budget) {
+		this((t, bytes) -> rpc.request(t, bytes).waitForResponse(), topic, budget);
+	}
+
+	public Lane(Sender sender, String topic, int budget) {
+		this.sender = sender;
+		this.topic = topic;
+		this.budget = budget;
+	}
+
+	/**
+	 * While the priority lane has anything in flight or queued, admit no more than the given budget
+	 */
+	public void yieldTo(Lane priority, int budget) {
+		this.priority = priority;
+		this.yieldBudget = budget;
+		priority.yielding.add(this);
+	}
+
+	/**
+	 * How long to wait for each response, in milliseconds
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	public Response call(byte[] bytes) throws Exception {
+		acquire();
+		try {
+			Future<Response> future = waiters.submit(() -> sender.send(topic, bytes));
+			pending.add(future);
+			try {
+				return future.get(timeout, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				future.cancel(true);
+				throw e;
+			} catch (TimeoutException e) {
+				future.cancel(true);
+				timedOut.incrementAndGet();
+				throw new Exception(String.format("no response on '%s' within %d ms", topic, timeout));
+			} catch (CancellationException e) {
+				throw new Exception(String.format("request on '%s' abandoned: the connection was lost", topic));
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Exception) {
+					throw (Exception) cause;
+				}
+				throw e;
+			} finally {
+				pending.remove(future);
+			}
+		} finally {
+			release();
+		}
+	}
+
+	private void acquire() throws InterruptedException {
+		lock.lock();
+		try {
+			queued++;
+			try {
+				while (inFlight >= getLimit()) {
+					admitted.await();
+				}
+			} finally {
+				queued--;
+			}
+			inFlight++;
+		} finally {
+			lock.unlock();
+		}
+		wakeYielding();
+	}
+
+	private void release() {
+		lock.lock();
+		try {
+			inFlight--;
+			admitted.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		wakeYielding();
+	}
+
+	private void wake() {
+		lock.lock();
+		try {
+			admitted.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void wakeYielding() {
+		for (Lane lane : yielding) {
+			lane.wake();
+		}
+	}
+
+	/**
+	 * The number of requests which may be in flight now
+	 */
+	public int getLimit() {
+		if (priority != null && (priority.inFlight > 0 || priority.queued > 0)) {
+			return Math.min(budget, yieldBudget);
+		}
+		return budget;
+	}
+
+	/**
+	 * Fail every call waiting for a response
+	 */
+	public void abandon() {
+		for (Future<Response> future : pending) {
+			future.cancel(true);
+		}
+	}
+
+	public String getTopic() {
+		return topic;
+	}
+
+	public int getBudget() {
+		return budget;
+	}
+
+	public int getInFlight() {
+		return inFlight;
+	}
+
+	public int getQueued() {
+		return queued;
+	}
+
+	/**
+	 * The number of requests sent whose reply has not arrived: those still waiting, and those which timed out
+	 */
+	public int getUnanswered() {
+		return inFlight + timedOut.get();
+	}
+
+	/**
+	 * True when a new request would have to wait to be admitted
+	 */
+	public boolean isBusy() {
+		return inFlight >= getLimit() || queued > 0;
+	}
+}
@@ -0,0 +1,48 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
+
+/**
+ * One {@link Lane} per {@link Priority}, so that bulk traffic (exports, prefetching, flushing the outbox) can use the
+ * capacity left over without delaying interactive calls.
+ *
+ * By default both lanes share the connection and the request topic, and differ only in their queues and budgets; the
+ * bulk lane yields to the interactive one, admitting only {@link #BULK_BUDGET_WHILE_INTERACTIVE} request while any
+ * interactive request is in flight or queued. The lanes are client side only, so interactive requests can still wait
+ * at the broker and responder behind the bulk requests already sent (at most {@link #BULK_BUDGET}). For strict
+ * isolation give the bulk lane its own topic, served by its own responder.
+ */
+public class Lanes {
+
+	public static final int INTERACTIVE_BUDGET = 4;
+	public static final int BULK_BUDGET = 8;
+	public static final int BULK_BUDGET_WHILE_INTERACTIVE = 1;
+
+	private final Map<Priority, Lane> lanes = new EnumMap<Priority, Lane>(Priority.class);
+
+	public Lanes(RemoteProcedureCall rpc, String requestTopic) {
+		this(new Lane(rpc, requestTopic, INTERACTIVE_BUDGET), new Lane(rpc, requestTopic, BULK_BUDGET));
+	}
+
+	public Lanes(Lane interactive, Lane bulk) {
+		lanes.put(Priority.INTERACTIVE, interactive);
+		lanes.put(Priority.BULK, bulk);
+		bulk.yieldTo(interactive, BULK_BUDGET_WHILE_INTERACTIVE);
+	}
+
+	public Lane get(Priority priority) {
+		return lanes.get(priority);
+	}
+
+	/**
+	 * Fail every call waiting for a response, in every lane
+	 */
+	public void abandon() {
+		for (Lane lane : lanes.values()) {
+			lane.abandon();
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rsmaxwell.diaries.request.model.Diary;
+import com.rsmaxwell.diaries.request.model.Page;
+
+/**
+ * A bounded cache in front of a loader which, after each access, quietly loads the items the user is likely to want
+ * next (for the viewer: the pages of the next and previous diaries).
+ *
+ * Prefetches go out on the bulk lane, and are skipped while the user has any request in flight (or the bulk lane is
+ * full), so they only use capacity which would otherwise be idle. When the user asks for an item whose prefetch has
+ * already been sent, the user waits for that prefetch rather than sending the same request again; a prefetch which
+ * has not been sent yet is dropped, and the item is loaded at interactive priority instead.
+ *
+ * The hit rate, and the number of prefetched items which were never used (evicted unread, or arriving after the
+ * item had been loaded anyway), show whether prefetching pays off.
+ */
+public class Prefetcher<K, V> {
+
+	private static final Logger log = LoggerFactory.getLogger(Prefetcher.class);
+
+	public static final int DEFAULT_CAPACITY = 32;
+	public static final long DEFAULT_TTL = 60_000;
+
+	public interface Loader<K, V> {
+		V load(K key, Priority priority) throws Exception;
+	}
+
+	public interface Neighbours<K> {
+		List<K> of(K key);
+	}
+
+	private static class Pending<V> {
+		final CompletableFuture<V> future = new CompletableFuture<V>();
+		boolean sent;
+	}
+
+	private static class Entry<V> {
+		final V value;
+		final long loadedAt = System.currentTimeMillis();
+		final boolean prefetched;
+		boolean used;
+
+		Entry(V value, boolean prefetched) {
+			this.value = value;
+			this.prefetched = prefetched;
+		}
+	}
+
+	private final Loader<K, V> loader;
+	private final Neighbours<K> neighbours;
+	private final BooleanSupplier busy;
+	private final long ttl;
+	private final Executor executor;
+
+	private final Map<K, Entry<V>> cache;
+	private final Map<K, Pending<V>> loading = new HashMap<K, Pending<V>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong joined = new AtomicLong();
+	private final AtomicLong prefetched = new AtomicLong();
+	private final AtomicLong wasted = new AtomicLong();
+	private final AtomicLong skipped = new AtomicLong();
+
+	public Prefetcher(Loader<K, V> loader, Neighbours<K> neighbours, BooleanSupplier busy, int capacity, long ttl) {
+		this(loader, neighbours, busy, capacity, ttl, Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "prefetcher");
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	Prefetcher(Loader<K, V> loader, Neighbours<K> neighbours, BooleanSupplier busy, int capacity, long ttl, Executor executor) {
+		this.loader = loader;
+		this.neighbours = neighbours;
+		this.busy = busy;
+		this.ttl = ttl;
+		this.executor = executor;
+
+		this.cache = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if (size() <= capacity) {
+					return false;
+				}
+				if (eldest.getValue().prefetched && !eldest.getValue().used) {
+					wasted.incrementAndGet();
+				}
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Prefetch the pages of the diaries either side of the one being viewed, in the order of the diaries list
+	 */
+	public static Prefetcher<Long, List<Page>> forPages(DiariesClient client, List<Diary> diaries) {
+
+		List<Long> ids = new ArrayList<Long>();
+		for (Diary diary : diaries) {
+			ids.add(diary.getId());
+		}
+
+		Neighbours<Long> neighbours = id -> {
+			int index = ids.indexOf(id);
+			if (index < 0) {
+				return Collections.emptyList();
+			}
+			List<Long> result = new ArrayList<Long>();
+			if (index + 1 < ids.size()) {
+				result.add(ids.get(index + 1));
+			}
+			if (index > 0) {
+				result.add(ids.get(index - 1));
+			}
+			return result;
+		};
+
+		Lanes lanes = client.getLanes();
+		BooleanSupplier busy = () -> {
+			Lane interactive = lanes.get(Priority.INTERACTIVE);
+			return interactive.getInFlight() > 0 || interactive.getQueued() > 0 || lanes.get(Priority.BULK).isBusy();
+		};
+
+		return new Prefetcher<Long, List<Page>>(client::getPages, neighbours, busy, DEFAULT_CAPACITY, DEFAULT_TTL);
+	}
+
+	public V get(K key) throws Exception {
+
+		V value = lookup(key);
+		if (value == null) {
+			value = join(key);
+		}
+		if (value != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			value = loader.load(key, Priority.INTERACTIVE);
+			synchronized (this) {
+				Entry<V> entry = new Entry<V>(value, false);
+				entry.used = true;
+				cache.put(key, entry);
+			}
+		}
+
+		for (K neighbour : neighbours.of(key)) {
+			prefetch(neighbour);
+		}
+		return value;
+	}
+
+	private synchronized V lookup(K key) {
+		Entry<V> entry = cache.get(key);
+		if (entry == null) {
+			return null;
+		}
+		if (System.currentTimeMillis() - entry.loadedAt > ttl) {
+			cache.remove(key);
+			return null;
+		}
+		entry.used = true;
+		return entry.value;
+	}
+
+	/**
+	 * Wait for the prefetch of the key if it has already been sent, otherwise drop it. Returns null if there is no
+	 * prefetched value.
+	 */
+	private V join(K key) {
+
+		Pending<V> pending;
+		synchronized (this) {
+			pending = loading.get(key);
+			if (pending == null) {
+				return null;
+			}
+			if (!pending.sent) {
+				loading.remove(key);
+				return null;
+			}
+		}
+
+		V value;
+		try {
+			value = pending.future.get();
+		} catch (Exception e) {
+			return null;
+		}
+		if (value != null) {
+			joined.incrementAndGet();
+			lookup(key);
+		}
+		return value;
+	}
+
+	private void prefetch(K key) {
+
+		Pending<V> pending = new Pending<V>();
+		synchronized (this) {
+			if (cache.containsKey(key) || loading.containsKey(key)) {
+				return;
+			}
+			loading.put(key, pending);
+		}
+
+		executor.execute(() -> {
+			V value = null;
+			try {
+				// Don't add to the load while the user's own requests are waiting
+				if (busy.getAsBoolean()) {
+					skipped.incrementAndGet();
+					return;
+				}
+
+				// The user may have asked for the item while the prefetch was queued
+				synchronized (this) {
+					if (loading.get(key) != pending) {
+						return;
+					}
+					pending.sent = true;
+				}
+
+				value = loader.load(key, Priority.BULK);
+				prefetched.incrementAndGet();
+				synchronized (this) {
+					if (cache.containsKey(key)) {
+						wasted.incrementAndGet();
+					} else {
+						cache.put(key, new Entry<V>(value, true));
+					}
+				}
+			} catch (Exception e) {
+				log.debug("prefetch of {} failed: {}", key, e.getMessage());
+			} finally {
+				synchronized (this) {
+					loading.remove(key, pending);
+				}
+				pending.future.complete(value);
+			}
+		});
+	}
+
+	/**
+	 * Stop prefetching; prefetched items which were never read are counted as wasted
+	 */
+	public void close() {
+		if (executor instanceof ExecutorService) {
+			((ExecutorService) executor).shutdownNow();
+		}
+		synchronized (this) {
+			for (Entry<V> entry : cache.values()) {
+				if (entry.prefetched && !entry.used) {
+					wasted.incrementAndGet();
+				}
+			}
+			cache.clear();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * The number of hits which waited for a prefetch still in flight
+	 */
+	public long getJoined() {
+		return joined.get();
+	}
+
+	public long getPrefetched() {
+		return prefetched.get();
+	}
+
+	public long getWasted() {
+		return wasted.get();
+	}
+
+	public long getSkipped() {
+		return skipped.get();
+	}
+
+	public double getHitRate() {
+		long total = hits.get() + misses.get();
+		return (total == 0) ? 0 : (double) hits.get() / total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits: %d (%d joined), misses: %d, hit rate: %.2f, prefetched: %d, wasted: %d, skipped while busy: %d", getHits(), getJoined(),
+				getMisses(), getHitRate(), getPrefetched(), getWasted(), getSkipped());
+	}
+}
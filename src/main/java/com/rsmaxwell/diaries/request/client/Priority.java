@@ -0,0 +1,5 @@
+package com.rsmaxwell.diaries.request.client;
+
+public enum Priority {
+	INTERACTIVE, BULK
+}
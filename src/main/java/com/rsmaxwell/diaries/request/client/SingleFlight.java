@@ -0,0 +1,69 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Coalesces concurrent calls which share the same key, so that only the first caller does the work and the others
+ * wait for, and share, its result (or its failure).
+ */
+public class SingleFlight<K, V> {
+
+	private static class Flight<V> {
+		final CompletableFuture<V> future = new CompletableFuture<V>();
+		final AtomicInteger waiters = new AtomicInteger();
+	}
+
+	private final ConcurrentHashMap<K, Flight<V>> inflight = new ConcurrentHashMap<K, Flight<V>>();
+
+	public V execute(K key, Callable<V> call) throws Exception {
+
+		Flight<V> flight = new Flight<V>();
+		Flight<V> existing = inflight.putIfAbsent(key, flight);
+		if (existing != null) {
+			existing.waiters.incrementAndGet();
+			return await(existing.future);
+		}
+
+		try {
+			V value = call.call();
+			flight.future.complete(value);
+			return value;
+		} catch (Throwable t) {
+			flight.future.completeExceptionally(t);
+			throw t;
+		} finally {
+			inflight.remove(key, flight);
+		}
+	}
+
+	public int size() {
+		return inflight.size();
+	}
+
+	/**
+	 * The number of callers which have joined the flight for the key, not counting the one doing the work
+	 */
+	int getWaiters(K key) {
+		Flight<V> flight = inflight.get(key);
+		return (flight == null) ? 0 : flight.waiters.get();
+	}
+
+	private V await(CompletableFuture<V> future) throws Exception {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception) {
+				throw (Exception) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw e;
+		}
+	}
+}
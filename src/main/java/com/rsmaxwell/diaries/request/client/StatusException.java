@@ -0,0 +1,35 @@
+package com.rsmaxwell.diaries.request.client;
+
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.mqtt.rpc.common.Status;
+
+/**
+ * The responder answered, but with a status other than OK
+ */
+public class StatusException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	private final Status status;
+
+	public StatusException(Status status) {
+		super(String.format("status: %s", status.getMessage()));
+		this.status = status;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * The numeric code of the status, or null if it has none
+	 */
+	public Integer getCode() {
+		Object code = mapper.convertValue(status, Map.class).get("code");
+		return (code instanceof Number) ? ((Number) code).intValue() : null;
+	}
+}
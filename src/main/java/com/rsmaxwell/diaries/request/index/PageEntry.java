@@ -0,0 +1,15 @@
+package com.rsmaxwell.diaries.request.index;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class PageEntry {
+
+	private Long diary;
+	private Long id;
+	private String name;
+}
@@ -0,0 +1,165 @@
+package com.rsmaxwell.diaries.request.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.diaries.request.model.Page;
+import com.rsmaxwell.diaries.request.state.State;
+
+/**
+ * A local index over the pages fetched so far, which answers "which pages cover this date?" and "which pages have a
+ * name starting with ...?" without another getPages round trip.
+ *
+ * The index is updated a diary at a time as pages are fetched, and is kept next to state.json.
+ */
+public class PageIndex {
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	// A date embedded in a page name, e.g. "1893-02-14", "1893_02_14" or "18930214"
+	private static final Pattern DATE = Pattern.compile("(\\d{4})[-_]?(\\d{2})[-_]?(\\d{2})");
+
+	private final Map<Long, List<PageEntry>> byDiary = new HashMap<Long, List<PageEntry>>();
+	private final TreeMap<LocalDate, List<PageEntry>> byDate = new TreeMap<LocalDate, List<PageEntry>>();
+	private final TreeMap<String, PageEntry> byName = new TreeMap<String, PageEntry>();
+
+	public static Path getFilePath() {
+		return State.getDirectory().resolve("pages.json");
+	}
+
+	public static PageIndex read() throws IOException {
+		return read(getFilePath());
+	}
+
+	public static PageIndex read(Path path) throws IOException {
+
+		PageIndex index = new PageIndex();
+
+		File file = path.toFile();
+		if (file.exists()) {
+			Map<Long, List<PageEntry>> diaries = mapper.readValue(file, new TypeReference<Map<Long, List<PageEntry>>>() {
+			});
+			for (Map.Entry<Long, List<PageEntry>> diary : diaries.entrySet()) {
+				index.put(diary.getKey(), diary.getValue());
+			}
+		}
+
+		return index;
+	}
+
+	public void write() throws IOException {
+		write(getFilePath());
+	}
+
+	public synchronized void write(Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(temp, mapper.writeValueAsBytes(byDiary));
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Replace the entries for a diary with the pages just fetched for it
+	 */
+	public void update(Long diary, Collection<Page> pages) {
+		List<PageEntry> entries = new ArrayList<PageEntry>(pages.size());
+		for (Page page : pages) {
+			entries.add(new PageEntry(diary, page.getId(), page.getName()));
+		}
+		put(diary, entries);
+	}
+
+	public synchronized List<PageEntry> find(LocalDate date) {
+		List<PageEntry> entries = byDate.get(date);
+		return (entries == null) ? new ArrayList<PageEntry>() : new ArrayList<PageEntry>(entries);
+	}
+
+	/**
+	 * The pages whose dates fall within [from, to], in date order
+	 */
+	public synchronized List<PageEntry> find(LocalDate from, LocalDate to) {
+		List<PageEntry> result = new ArrayList<PageEntry>();
+		for (List<PageEntry> entries : byDate.subMap(from, true, to, true).values()) {
+			result.addAll(entries);
+		}
+		return result;
+	}
+
+	/**
+	 * The pages whose names start with the prefix, in name order
+	 */
+	public synchronized List<PageEntry> findByPrefix(String prefix) {
+		NavigableMap<String, PageEntry> range = byName.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+		return new ArrayList<PageEntry>(range.values());
+	}
+
+	public synchronized int size() {
+		return byName.size();
+	}
+
+	public static LocalDate dateOf(String name) {
+		if (name == null) {
+			return null;
+		}
+		Matcher matcher = DATE.matcher(name);
+		while (matcher.find()) {
+			try {
+				int year = Integer.parseInt(matcher.group(1));
+				int month = Integer.parseInt(matcher.group(2));
+				int day = Integer.parseInt(matcher.group(3));
+				return LocalDate.of(year, month, day);
+			} catch (DateTimeException e) {
+				// Not a date, so keep looking
+			}
+		}
+		return null;
+	}
+
+	private synchronized void put(Long diary, List<PageEntry> entries) {
+
+		List<PageEntry> previous = byDiary.remove(diary);
+		if (previous != null) {
+			for (PageEntry entry : previous) {
+				byName.remove(nameKey(entry));
+				LocalDate date = dateOf(entry.getName());
+				if (date != null) {
+					List<PageEntry> list = byDate.get(date);
+					list.remove(entry);
+					if (list.isEmpty()) {
+						byDate.remove(date);
+					}
+				}
+			}
+		}
+
+		byDiary.put(diary, entries);
+		for (PageEntry entry : entries) {
+			byName.put(nameKey(entry), entry);
+			LocalDate date = dateOf(entry.getName());
+			if (date != null) {
+				byDate.computeIfAbsent(date, d -> new ArrayList<PageEntry>()).add(entry);
+			}
+		}
+	}
+
+	// Names are not unique across diaries, so the page id keeps the keys distinct without changing the name order
+	private static String nameKey(PageEntry entry) {
+		return entry.getName() + '\u0000' + entry.getId();
+	}
+}
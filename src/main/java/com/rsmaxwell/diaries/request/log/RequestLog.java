@@ -0,0 +1,109 @@
+package com.rsmaxwell.diaries.request.log;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.ThreadContext;
+import org.apache.logging.log4j.message.ReusableMessageFactory;
+import org.apache.logging.log4j.util.Unbox;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.diaries.request.record.Redactor;
+
+/**
+ * Structured events for the request path, written to the "com.rsmaxwell.diaries.request.events" logger, which
+ * log4j2.xml makes an asynchronous logger with a garbage-free layout.
+ *
+ * The events are logged through the Log4j 2 API rather than SLF4J, so that the per-request lines allocate nothing:
+ * the arguments are unboxed with {@link Unbox}, the messages are parameterised with no more arguments than Log4j's
+ * unrolled methods take, and the function is put in the (garbage-free, see log4j2.component.properties) thread context
+ * rather than a copy-on-write MDC. Every event carries the request id. Full payloads are only logged for one call in
+ * every DIARIES_LOG_SAMPLE (default 100), with passwords and tokens redacted.
+ */
+public class RequestLog {
+
+	public static final String LOGGER_NAME = "com.rsmaxwell.diaries.request.events";
+	public static final String ENVIRONMENT_VARIABLE = "DIARIES_LOG_SAMPLE";
+
+	public static final String FUNCTION = "function";
+
+	private static final Logger log = LogManager.getLogger(LOGGER_NAME, ReusableMessageFactory.INSTANCE);
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	private static final AtomicLong ids = new AtomicLong();
+
+	private final int sample;
+
+	public RequestLog() {
+		this(sampleFromEnvironment());
+	}
+
+	public RequestLog(int sample) {
+		this.sample = Math.max(0, sample);
+	}
+
+	/**
+	 * Start a request on this thread: allocates its id and puts the function in the thread context until {@link #end}
+	 * is called
+	 */
+	public long begin(String function, byte[] request) {
+
+		long id = ids.incrementAndGet();
+		if (!log.isInfoEnabled()) {
+			return id;
+		}
+
+		if (function != null) {
+			ThreadContext.put(FUNCTION, function);
+		}
+
+		log.debug("request id={} bytes={}", Unbox.box(id), Unbox.box(request.length));
+		if (isSampled(id) && log.isTraceEnabled()) {
+			log.trace("request id={} payload={}", Unbox.box(id), new String(Redactor.redact(request), StandardCharsets.UTF_8));
+		}
+		return id;
+	}
+
+	public void end(long id, boolean ok, long nanos, Object payload) {
+		try {
+			log.info("response id={} ok={} micros={}", Unbox.box(id), Unbox.box(ok), Unbox.box(nanos / 1000));
+			if (isSampled(id) && log.isDebugEnabled()) {
+				log.debug("response id={} payload={}", Unbox.box(id), redact(payload));
+			}
+		} finally {
+			ThreadContext.remove(FUNCTION);
+		}
+	}
+
+	public void fail(long id, Exception e) {
+		try {
+			log.warn("response id={} failed: {}", Unbox.box(id), e.toString());
+		} finally {
+			ThreadContext.remove(FUNCTION);
+		}
+	}
+
+	private static String redact(Object payload) {
+		try {
+			return new String(Redactor.redact(mapper.writeValueAsBytes(payload)), StandardCharsets.UTF_8);
+		} catch (JsonProcessingException e) {
+			return String.format("<%s>", e.getMessage());
+		}
+	}
+
+	private boolean isSampled(long id) {
+		return sample > 0 && id % sample == 0;
+	}
+
+	private static int sampleFromEnvironment() {
+		String value = System.getenv(ENVIRONMENT_VARIABLE);
+		if (value == null || value.isBlank()) {
+			return 100;
+		}
+		return Integer.parseInt(value.trim());
+	}
+}
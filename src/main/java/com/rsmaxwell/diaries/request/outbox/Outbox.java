@@ -0,0 +1,590 @@
+package com.rsmaxwell.diaries.request.outbox;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.client.Priority;
+import com.rsmaxwell.diaries.request.record.Redactor;
+import com.rsmaxwell.diaries.request.state.State;
+import com.rsmaxwell.mqtt.rpc.common.Request;
+import com.rsmaxwell.mqtt.rpc.common.Response;
+import com.rsmaxwell.mqtt.rpc.common.Status;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A durable queue of writes, kept as an append-only journal in ~/.diaries/outbox.
+ *
+ * A write is accepted as soon as it has been forced to the journal, and is sent later, by {@link #flush}, on the bulk
+ * lane. Writes to the same entity are sent one at a time in the order they were accepted; different entities are
+ * sent concurrently. Each request carries its entry's key as "idempotencyKey", so a write which was sent but whose
+ * acknowledgement was lost in a crash can be sent again without being applied twice.
+ *
+ * <pre>
+ * {"type":"submit","entry":{...}}    a write was accepted
+ * {"type":"retry","key":"..."}       an attempt to send it failed
+ * {"type":"ack","key":"..."}         the responder applied it
+ * {"type":"reject","key":"..."}      the responder refused it, or it failed too often; it will not be retried
+ * </pre>
+ *
+ * The journal is compacted when it is opened, and truncated whenever nothing is left pending. It is readable by its
+ * owner only.
+ *
+ * Secrets ({@link Redactor#SECRETS}, e.g. the password of a registration) are held in memory only: the journal
+ * records the write without them, and a write which is reopened without its secrets is dropped. Access tokens are not
+ * journaled either: the client's current token is added to each request as it is sent, so a write queued under a
+ * token which has since expired goes out under the new one.
+ *
+ * A write refused because the client is not signed in, or because the responder is temporarily unable to handle it,
+ * is tried again after a delay which doubles with each attempt. After {@link #DEFAULT_MAX_ATTEMPTS} attempts (by
+ * default) it is rejected, so that it no longer holds up the later writes to its entity.
+ */
+public class Outbox {
+
+	private static final Logger log = LoggerFactory.getLogger(Outbox.class);
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	public static final String IDEMPOTENCY_KEY = "idempotencyKey";
+	public static final int DEFAULT_BATCH_SIZE = 32;
+	public static final int DEFAULT_MAX_ATTEMPTS = 8;
+	public static final long INITIAL_BACKOFF = 1_000;
+	public static final long MAX_BACKOFF = 300_000;
+
+	public interface Listener {
+		void acknowledged(OutboxEntry entry, Response response) throws Exception;
+	}
+
+	/**
+	 * Completes a request from its entry just before it is sent, e.g. with values which depend on earlier writes
+	 */
+	public interface Preparer {
+		void prepare(OutboxEntry entry, Request request) throws Exception;
+	}
+
+	enum Outcome {
+		REFUSED, UNAUTHORISED, TRANSIENT
+	}
+
+	// Only used for a status without a code
+	private static final Pattern UNAUTHORISED = Pattern.compile("\\b(token|expired|unauthori[sz]ed|authentication|sign(ed)? ?in)\\b");
+	private static final Pattern TRANSIENT = Pattern.compile("\\b(time ?out|timed out|unavailable|busy|try again|overloaded)\\b");
+
+	@Data
+	@AllArgsConstructor
+	@NoArgsConstructor
+	static class JournalRecord {
+		private String type;
+		private String key;
+		private OutboxEntry entry;
+	}
+
+	private final Path path;
+	private FileChannel channel;
+
+	private final Map<String, OutboxEntry> pending = new LinkedHashMap<String, OutboxEntry>();
+	private final Map<String, Listener> listeners = new HashMap<String, Listener>();
+	private final Map<String, Preparer> preparers = new HashMap<String, Preparer>();
+	private final Map<String, Long> retryAt = new HashMap<String, Long>();
+	private final Object flushLock = new Object();
+
+	private int batchSize = DEFAULT_BATCH_SIZE;
+	private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+	private ExecutorService senders;
+	private ScheduledExecutorService flusher;
+
+	public static Path getDirectory() {
+		return State.getDirectory().resolve("outbox");
+	}
+
+	public Outbox() throws IOException {
+		this(getDirectory());
+	}
+
+	public Outbox(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		restrict(directory, "rwx------");
+		this.path = directory.resolve("journal.jsonl");
+		replay();
+		compact();
+	}
+
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+
+	public void setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * Called, on the sending thread, when the responder acknowledges a write made with the given function
+	 */
+	public synchronized void onAcknowledged(String function, Listener listener) {
+		listeners.put(function, listener);
+	}
+
+	/**
+	 * Called, on the sending thread, just before a write made with the given function is sent
+	 */
+	public synchronized void onSending(String function, Preparer preparer) {
+		preparers.put(function, preparer);
+	}
+
+	/**
+	 * Accept a write, and return its idempotency key. The write is durable when this returns.
+	 */
+	public synchronized String submit(String entity, String function, Map<String, Object> args) throws IOException {
+		OutboxEntry entry = new OutboxEntry(UUID.randomUUID().toString(), entity, function, args, System.currentTimeMillis(), 0, null);
+		for (String name : args.keySet()) {
+			if (Redactor.SECRETS.contains(name)) {
+				entry.setWithheld((entry.getWithheld() == null) ? new ArrayList<String>() : entry.getWithheld());
+				entry.getWithheld().add(name);
+			}
+		}
+		append(new JournalRecord("submit", entry.getKey(), journaled(entry)));
+		pending.put(entry.getKey(), entry);
+		return entry.getKey();
+	}
+
+	public synchronized List<OutboxEntry> getPending() {
+		return new ArrayList<OutboxEntry>(pending.values());
+	}
+
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	public synchronized void acknowledge(String key) throws IOException {
+		complete("ack", key);
+	}
+
+	public synchronized void reject(String key) throws IOException {
+		complete("reject", key);
+	}
+
+	/**
+	 * Record a failed attempt to send a write, and either schedule the next one or, after too many, give it up
+	 */
+	synchronized void retry(String key) throws IOException {
+		OutboxEntry entry = pending.get(key);
+		if (entry == null) {
+			return;
+		}
+		entry.setAttempts(entry.getAttempts() + 1);
+		if (entry.getAttempts() >= maxAttempts) {
+			log.warn("outbox: {} for '{}' given up after {} attempts", entry.getFunction(), entry.getEntity(), entry.getAttempts());
+			complete("reject", key);
+			return;
+		}
+		append(new JournalRecord("retry", key, null));
+		retryAt.put(key, System.currentTimeMillis() + backoff(entry.getAttempts()));
+	}
+
+	static long backoff(int attempts) {
+		return Math.min(MAX_BACKOFF, INITIAL_BACKOFF << Math.min(attempts - 1, 30));
+	}
+
+	private void complete(String type, String key) throws IOException {
+		retryAt.remove(key);
+		if (pending.remove(key) == null) {
+			return;
+		}
+		append(new JournalRecord(type, key, null));
+		if (pending.isEmpty()) {
+			channel.truncate(0);
+			channel.force(true);
+		}
+	}
+
+	/**
+	 * Returns the next batch: the oldest pending writes, grouped by entity, each group in the order accepted. An
+	 * entity whose oldest write is waiting to be retried is left out.
+	 */
+	synchronized Map<String, List<OutboxEntry>> nextBatch() {
+		Map<String, List<OutboxEntry>> batch = new LinkedHashMap<String, List<OutboxEntry>>();
+		Set<String> waiting = new HashSet<String>();
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (OutboxEntry entry : pending.values()) {
+			if (count >= batchSize) {
+				break;
+			}
+			if (waiting.contains(entry.getEntity())) {
+				continue;
+			}
+			Long due = retryAt.get(entry.getKey());
+			if (due != null && due > now) {
+				waiting.add(entry.getEntity());
+				continue;
+			}
+			batch.computeIfAbsent(entry.getEntity(), k -> new ArrayList<OutboxEntry>()).add(entry);
+			count++;
+		}
+		return batch;
+	}
+
+	/**
+	 * Send one batch of pending writes, and return the number the responder acknowledged. Nothing is sent while the
+	 * user's own requests are waiting for a lane. Only one flush runs at a time, so a write is never sent by two
+	 * flushes at once.
+	 */
+	public int flush(DiariesClient client) throws Exception {
+
+		synchronized (flushLock) {
+			if (client.getLanes().get(Priority.INTERACTIVE).isBusy()) {
+				return 0;
+			}
+
+			Map<String, List<OutboxEntry>> batch = nextBatch();
+			if (batch.isEmpty()) {
+				return 0;
+			}
+
+			AtomicInteger acknowledged = new AtomicInteger();
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (List<OutboxEntry> entries : batch.values()) {
+				futures.add(getSenders().submit(() -> send(client, entries, acknowledged)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+
+			log.debug("outbox: {} acknowledged, {} pending", acknowledged.get(), size());
+			return acknowledged.get();
+		}
+	}
+
+	/**
+	 * Send until the outbox is empty, or a batch leaves as many writes pending as before (e.g. because the rest are
+	 * waiting to be retried)
+	 */
+	public int flushAll(DiariesClient client) throws Exception {
+		int total = 0;
+		while (size() > 0) {
+			int before = size();
+			total += flush(client);
+			if (size() >= before) {
+				break;
+			}
+		}
+		return total;
+	}
+
+	private void send(DiariesClient client, List<OutboxEntry> entries, AtomicInteger acknowledged) {
+
+		for (OutboxEntry entry : entries) {
+
+			Request request = new Request(entry.getFunction());
+			for (Map.Entry<String, Object> arg : entry.getArgs().entrySet()) {
+				request.put(arg.getKey(), arg.getValue());
+			}
+			request.put(IDEMPOTENCY_KEY, entry.getKey());
+			if (client.getAccessToken() != null) {
+				request.put("accessToken", client.getAccessToken());
+			}
+
+			try {
+				prepare(entry, request);
+
+				Response response = client.request(request, Priority.BULK);
+				Status status = response.getStatus();
+
+				if (status.isOk()) {
+					acknowledge(entry.getKey());
+					acknowledged.incrementAndGet();
+					notify(entry, response);
+					continue;
+				}
+
+				Outcome outcome = classify(mapper.convertValue(status, Map.class));
+				if (outcome == Outcome.REFUSED) {
+					log.warn("outbox: {} for '{}' was refused: {}", entry.getFunction(), entry.getEntity(), status.getMessage());
+					reject(entry.getKey());
+					continue;
+				}
+
+				// Leave this, and the later writes to the same entity, for a later flush
+				if (outcome == Outcome.UNAUTHORISED) {
+					log.warn("outbox: {} for '{}' needs a valid sign in: {}", entry.getFunction(), entry.getEntity(), status.getMessage());
+				} else {
+					log.info("outbox: {} for '{}' will be retried: {}", entry.getFunction(), entry.getEntity(), status.getMessage());
+				}
+				failed(entry);
+				return;
+
+			} catch (Exception e) {
+				// Leave this, and the later writes to the same entity, for a later flush
+				log.info("outbox: {} for '{}' was not sent: {}", entry.getFunction(), entry.getEntity(), e.getMessage());
+				failed(entry);
+				return;
+			}
+		}
+	}
+
+	private void failed(OutboxEntry entry) {
+		try {
+			retry(entry.getKey());
+		} catch (IOException e) {
+			log.warn("outbox: could not record the failed attempt of {}: {}", entry.getKey(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Decide, from a non-OK status (as a map of its properties), whether the write should be given up. The code
+	 * decides when there is one; otherwise whole words of the message are looked for.
+	 */
+	static Outcome classify(Map<?, ?> status) {
+
+		Object code = status.get("code");
+		if (code instanceof Number) {
+			int value = ((Number) code).intValue();
+			if (value == 401 || value == 403) {
+				return Outcome.UNAUTHORISED;
+			}
+			if (value == 408 || value == 429 || value >= 500) {
+				return Outcome.TRANSIENT;
+			}
+			return Outcome.REFUSED;
+		}
+
+		Object message = status.get("message");
+		String text = (message == null) ? "" : message.toString().toLowerCase(Locale.ROOT);
+		if (UNAUTHORISED.matcher(text).find()) {
+			return Outcome.UNAUTHORISED;
+		}
+		if (TRANSIENT.matcher(text).find()) {
+			return Outcome.TRANSIENT;
+		}
+		return Outcome.REFUSED;
+	}
+
+	private void prepare(OutboxEntry entry, Request request) throws Exception {
+		Preparer preparer;
+		synchronized (this) {
+			preparer = preparers.get(entry.getFunction());
+		}
+		if (preparer != null) {
+			preparer.prepare(entry, request);
+		}
+	}
+
+	private void notify(OutboxEntry entry, Response response) {
+		Listener listener;
+		synchronized (this) {
+			listener = listeners.get(entry.getFunction());
+		}
+		if (listener == null) {
+			return;
+		}
+		try {
+			listener.acknowledged(entry, response);
+		} catch (Exception e) {
+			log.warn("outbox: listener for {} failed: {}", entry.getFunction(), e.getMessage());
+		}
+	}
+
+	/**
+	 * Flush in the background whenever connected
+	 */
+	public synchronized void startFlushing(DiariesClient client, BooleanSupplier connected, long interval, TimeUnit unit) {
+
+		if (flusher != null) {
+			return;
+		}
+
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "outbox");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		flusher.scheduleWithFixedDelay(() -> {
+			if (size() == 0 || !connected.getAsBoolean()) {
+				return;
+			}
+			try {
+				flush(client);
+			} catch (Exception e) {
+				log.info("outbox: flush failed: {}", e.getMessage());
+			}
+		}, interval, interval, unit);
+	}
+
+	public synchronized void close() throws IOException {
+		if (flusher != null) {
+			flusher.shutdownNow();
+		}
+		if (senders != null) {
+			senders.shutdownNow();
+		}
+		channel.close();
+	}
+
+	private synchronized ExecutorService getSenders() {
+		if (senders == null) {
+			senders = Executors.newCachedThreadPool(runnable -> {
+				Thread thread = new Thread(runnable, "outbox-sender");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return senders;
+	}
+
+	private void append(JournalRecord record) throws IOException {
+		write(channel, record);
+		channel.force(false);
+	}
+
+	private static void write(FileChannel channel, JournalRecord record) throws IOException {
+		byte[] line = (mapper.writeValueAsString(record) + "\n").getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.wrap(line);
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private void replay() throws IOException {
+
+		if (!Files.exists(path)) {
+			return;
+		}
+
+		List<String> lines = new ArrayList<String>();
+		try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+
+		for (int i = 0; i < lines.size(); i++) {
+			String line = lines.get(i);
+			if (line.isBlank()) {
+				continue;
+			}
+
+			JournalRecord record;
+			try {
+				record = mapper.readValue(line, JournalRecord.class);
+			} catch (IOException e) {
+				if (i == lines.size() - 1) {
+					// A write torn by a crash; it was never acknowledged to the caller
+					log.warn("outbox: ignoring incomplete last record in {}", path);
+					break;
+				}
+				throw new IOException(String.format("%s: line %d: %s", path, i + 1, e.getMessage()), e);
+			}
+
+			switch (record.getType()) {
+			case "submit":
+				pending.put(record.getEntry().getKey(), record.getEntry());
+				break;
+			case "retry": {
+				OutboxEntry entry = pending.get(record.getKey());
+				if (entry != null) {
+					entry.setAttempts(entry.getAttempts() + 1);
+				}
+				break;
+			}
+			case "ack":
+			case "reject":
+				pending.remove(record.getKey());
+				break;
+			default:
+				throw new IOException(String.format("%s: line %d: unexpected record type: %s", path, i + 1, record.getType()));
+			}
+		}
+
+		// Secrets were not journaled, so these can no longer be sent
+		pending.values().removeIf(entry -> {
+			if (entry.getWithheld() == null || entry.getWithheld().isEmpty()) {
+				return false;
+			}
+			log.warn("outbox: dropping {} for '{}': its {} was not kept", entry.getFunction(), entry.getEntity(), entry.getWithheld());
+			return true;
+		});
+	}
+
+	/**
+	 * Rewrite the journal with only the pending writes, then reopen it for appending
+	 */
+	private void compact() throws IOException {
+
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.deleteIfExists(temp);
+		Files.createFile(temp);
+		restrict(temp, "rw-------");
+		try (FileChannel out = FileChannel.open(temp, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			for (OutboxEntry entry : pending.values()) {
+				write(out, new JournalRecord("submit", entry.getKey(), journaled(entry)));
+			}
+			out.force(true);
+		}
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * The entry as it is journaled: without the values of its secrets
+	 */
+	private static OutboxEntry journaled(OutboxEntry entry) {
+		if (entry.getWithheld() == null || entry.getWithheld().isEmpty()) {
+			return entry;
+		}
+		Map<String, Object> args = new LinkedHashMap<String, Object>(entry.getArgs());
+		args.keySet().removeAll(entry.getWithheld());
+		return new OutboxEntry(entry.getKey(), entry.getEntity(), entry.getFunction(), args, entry.getCreated(), entry.getAttempts(), entry.getWithheld());
+	}
+
+	/**
+	 * Make the file or directory accessible to its owner only
+	 */
+	private static void restrict(Path path, String permissions) throws IOException {
+		if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+			Files.setPosixFilePermissions(path, PosixFilePermissions.fromString(permissions));
+			return;
+		}
+		File file = path.toFile();
+		file.setReadable(false, false);
+		file.setReadable(true, true);
+		file.setWritable(false, false);
+		file.setWritable(true, true);
+	}
+}
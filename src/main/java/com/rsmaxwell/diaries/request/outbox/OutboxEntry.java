@@ -0,0 +1,33 @@
+package com.rsmaxwell.diaries.request.outbox;
+
+import java.util.List;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A write which has been accepted into the {@link Outbox} but not yet acknowledged by the responder
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OutboxEntry {
+
+	/** Sent with the request as its idempotency key, so a replayed write is applied only once */
+	private String key;
+
+	/** Writes to the same entity are sent in the order they were accepted */
+	private String entity;
+
+	private String function;
+	private Map<String, Object> args;
+	private long created;
+
+	/** The number of failed attempts to send it */
+	private int attempts;
+
+	/** The names of the arguments which are held in memory only, and not journaled */
+	private List<String> withheld;
+}
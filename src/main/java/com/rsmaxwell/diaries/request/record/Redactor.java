@@ -0,0 +1,121 @@
+package com.rsmaxwell.diaries.request.record;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+
+/**
+ * Replaces credentials in json messages before they are written anywhere outside the process
+ */
+public class Redactor {
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	public static final Set<String> SECRETS = Set.of("password", "accessToken", "refreshToken");
+	public static final String REDACTED = "[redacted]";
+
+	/**
+	 * Returns the json with the value of every field named in {@link #SECRETS}, at any depth, replaced. Strings which
+	 * hold json themselves, such as the signin reply payload, are redacted in the same way. Bytes which are not json
+	 * are returned unchanged.
+	 */
+	public static byte[] redact(byte[] json) {
+		JsonNode tree;
+		try {
+			tree = mapper.readTree(json);
+		} catch (IOException e) {
+			return json;
+		}
+		JsonNode redacted = (tree == null) ? null : replace(tree);
+		if (redacted == null) {
+			return json;
+		}
+		try {
+			return mapper.writeValueAsBytes(redacted);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Puts the current access token back into a request recorded with it redacted
+	 */
+	public static byte[] restoreAccessToken(byte[] json, String accessToken) throws IOException {
+		JsonNode tree = mapper.readTree(json);
+		if (tree == null || accessToken == null || !restore(tree, accessToken)) {
+			return json;
+		}
+		return mapper.writeValueAsBytes(tree);
+	}
+
+	/**
+	 * Returns the node with its secrets replaced, or null if it has none
+	 */
+	private static JsonNode replace(JsonNode node) {
+		boolean changed = false;
+		if (node.isObject()) {
+			Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				JsonNode value = field.getValue();
+				JsonNode replacement = (SECRETS.contains(field.getKey()) && !value.isNull()) ? TextNode.valueOf(REDACTED) : replace(value);
+				if (replacement != null) {
+					field.setValue(replacement);
+					changed = true;
+				}
+			}
+		} else if (node.isArray()) {
+			for (int i = 0; i < node.size(); i++) {
+				JsonNode replacement = replace(node.get(i));
+				if (replacement != null) {
+					((ArrayNode) node).set(i, replacement);
+					changed = true;
+				}
+			}
+		} else if (node.isTextual()) {
+			return replaceEmbedded(node.asText());
+		}
+		return changed ? node : null;
+	}
+
+	private static JsonNode replaceEmbedded(String text) {
+		String trimmed = text.trim();
+		if (!trimmed.startsWith("{") && !trimmed.startsWith("[")) {
+			return null;
+		}
+		try {
+			JsonNode redacted = replace(mapper.readTree(trimmed));
+			return (redacted == null) ? null : TextNode.valueOf(mapper.writeValueAsString(redacted));
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static boolean restore(JsonNode node, String accessToken) {
+		boolean changed = false;
+		if (node.isObject()) {
+			Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+			while (fields.hasNext()) {
+				Map.Entry<String, JsonNode> field = fields.next();
+				if (field.getKey().equals("accessToken") && REDACTED.equals(field.getValue().asText())) {
+					((ObjectNode) node).put(field.getKey(), accessToken);
+					changed = true;
+				} else {
+					changed |= restore(field.getValue(), accessToken);
+				}
+			}
+		} else if (node.isArray()) {
+			for (JsonNode item : node) {
+				changed |= restore(item, accessToken);
+			}
+		}
+		return changed;
+	}
+}
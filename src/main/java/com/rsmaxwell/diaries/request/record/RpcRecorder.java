@@ -0,0 +1,100 @@
+package com.rsmaxwell.diaries.request.record;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends every request and response to a compact binary log, so the traffic can be replayed later.
+ *
+ * <pre>
+ * file     := MAGIC VERSION record*
+ * record   := SESSION  timestamp
+ *           | REQUEST  sequence timestamp topic function length bytes
+ *           | RESPONSE sequence timestamp length bytes
+ * </pre>
+ *
+ * Timestamps are nanoseconds since the epoch, sequence numbers restart at each SESSION. The function is empty when
+ * it is not known. Passwords and tokens are redacted (see {@link Redactor}) before anything is written.
+ */
+public class RpcRecorder implements Closeable {
+
+	public static final String ENVIRONMENT_VARIABLE = "DIARIES_RECORD";
+
+	static final int MAGIC = 0x44525043; // "DRPC"
+	static final int VERSION = 2;
+
+	static final byte SESSION = 0;
+	static final byte REQUEST = 1;
+	static final byte RESPONSE = 2;
+
+	private final DataOutputStream out;
+	private final long originNanoTime = System.nanoTime();
+	private final long originEpochNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+	private long sequence = 0;
+
+	public RpcRecorder(Path path) throws IOException {
+
+		boolean empty = !Files.exists(path) || Files.size(path) == 0;
+		out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+
+		if (empty) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+		out.writeByte(SESSION);
+		out.writeLong(now());
+		out.flush();
+	}
+
+	/**
+	 * Returns a recorder for the file named by the DIARIES_RECORD environment variable, or null if recording is not
+	 * enabled
+	 */
+	public static RpcRecorder fromEnvironment() throws IOException {
+		String filename = System.getenv(ENVIRONMENT_VARIABLE);
+		if (filename == null || filename.isBlank()) {
+			return null;
+		}
+		return new RpcRecorder(Paths.get(filename));
+	}
+
+	public synchronized long recordRequest(String topic, String function, byte[] bytes) throws IOException {
+		bytes = Redactor.redact(bytes);
+		long id = ++sequence;
+		out.writeByte(REQUEST);
+		out.writeLong(id);
+		out.writeLong(now());
+		out.writeUTF(topic);
+		out.writeUTF((function == null) ? "" : function);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+		return id;
+	}
+
+	public synchronized void recordResponse(long id, byte[] bytes) throws IOException {
+		bytes = Redactor.redact(bytes);
+		out.writeByte(RESPONSE);
+		out.writeLong(id);
+		out.writeLong(now());
+		out.writeInt(bytes.length);
+		out.write(bytes);
+		out.flush();
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		out.close();
+	}
+
+	private long now() {
+		return originEpochNanos + (System.nanoTime() - originNanoTime);
+	}
+}
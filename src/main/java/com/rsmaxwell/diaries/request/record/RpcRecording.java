@@ -0,0 +1,119 @@
+package com.rsmaxwell.diaries.request.record;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+
+/**
+ * Reads a log written by {@link RpcRecorder} back into a list of request/response exchanges, in the order the
+ * requests were sent. Exchanges are numbered by the session (run) which recorded them, starting at 1.
+ */
+public class RpcRecording {
+
+	@Data
+	public static class Exchange {
+		private int session;
+		private String topic;
+		private String function;
+		private long requestTime;
+		private byte[] request;
+		private long responseTime;
+		private byte[] response;
+
+		public boolean hasResponse() {
+			return response != null;
+		}
+
+		public long getLatencyNanos() {
+			return responseTime - requestTime;
+		}
+	}
+
+	public static List<Exchange> read(Path path) throws IOException {
+
+		List<Exchange> exchanges = new ArrayList<Exchange>();
+		Map<Long, Exchange> session = new HashMap<Long, Exchange>();
+		int sessionNumber = 0;
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+			if (in.readInt() != RpcRecorder.MAGIC) {
+				throw new IOException(String.format("not a recording: %s", path));
+			}
+			int version = in.readInt();
+			if (version < 1 || version > RpcRecorder.VERSION) {
+				throw new IOException(String.format("unsupported recording version: %d", version));
+			}
+
+			while (true) {
+				int type;
+				try {
+					type = in.readByte();
+				} catch (EOFException e) {
+					break;
+				}
+
+				try {
+					switch (type) {
+					case RpcRecorder.SESSION:
+						in.readLong();
+						session.clear();
+						sessionNumber++;
+						break;
+
+					case RpcRecorder.REQUEST: {
+						Exchange exchange = new Exchange();
+						exchange.setSession(sessionNumber);
+						long id = in.readLong();
+						exchange.setRequestTime(in.readLong());
+						exchange.setTopic(in.readUTF());
+						if (version >= 2) {
+							String function = in.readUTF();
+							exchange.setFunction(function.isEmpty() ? null : function);
+						}
+						exchange.setRequest(readBytes(in));
+						session.put(id, exchange);
+						exchanges.add(exchange);
+						break;
+					}
+
+					case RpcRecorder.RESPONSE: {
+						long id = in.readLong();
+						long time = in.readLong();
+						byte[] bytes = readBytes(in);
+						Exchange exchange = session.remove(id);
+						if (exchange != null) {
+							exchange.setResponseTime(time);
+							exchange.setResponse(bytes);
+						}
+						break;
+					}
+
+					default:
+						throw new IOException(String.format("unexpected record type: %d", type));
+					}
+				} catch (EOFException e) {
+					// The recorder was interrupted part way through writing the last record
+					break;
+				}
+			}
+		}
+
+		return exchanges;
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+}
@@ -0,0 +1,103 @@
+package com.rsmaxwell.diaries.request.soak;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.stream.Stream;
+
+/**
+ * Samples the metrics which reveal a leak in a long running requestor: the heap left after garbage collection, the
+ * number of threads, the allocation rate, the number of requests whose reply never arrived (see
+ * {@link com.rsmaxwell.diaries.request.client.Lane#getUnanswered}), and the size of Paho's persistence directory.
+ */
+public class SoakMetrics {
+
+	private static final double MB = 1024 * 1024;
+
+	// Each with the smallest change, and the smallest slope per hour, which would matter
+	private final Trend heap = new Trend("heap after GC", "MB", 16, 8);
+	private final Trend threads = new Trend("threads", "", 4, 2);
+	private final Trend allocation = new Trend("allocation rate", "MB/s", 10, 5);
+	private final Trend unanswered = new Trend("unanswered requests", "", 10, 5);
+	private final Trend persistence = new Trend("paho persistence", "KB", 64, 32);
+
+	private final IntSupplier unansweredRequests;
+	private final Path persistenceDirectory;
+	private final String clientID;
+
+	private final com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private final long start = System.nanoTime();
+	private long lastAllocated = -1;
+	private double lastSeconds = 0;
+
+	public SoakMetrics(IntSupplier unansweredRequests, Path persistenceDirectory, String clientID) {
+		this.unansweredRequests = unansweredRequests;
+		this.persistenceDirectory = persistenceDirectory;
+		this.clientID = clientID;
+	}
+
+	public List<Trend> getTrends() {
+		return List.of(heap, threads, allocation, unanswered, persistence);
+	}
+
+	public void sample() {
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		heap.add(seconds, heapAfterGC() / MB);
+		threads.add(seconds, threadBean.getThreadCount());
+		unanswered.add(seconds, unansweredRequests.getAsInt());
+		persistence.add(seconds, persistenceSize() / 1024.0);
+
+		long allocated = allocatedBytes();
+		if (lastAllocated >= 0 && seconds > lastSeconds) {
+			allocation.add(seconds, Math.max(0, allocated - lastAllocated) / MB / (seconds - lastSeconds));
+		}
+		lastAllocated = allocated;
+		lastSeconds = seconds;
+	}
+
+	private static long heapAfterGC() {
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			MemoryUsage usage = pool.getCollectionUsage();
+			if (pool.getType() == MemoryType.HEAP && usage != null) {
+				used += usage.getUsed();
+			}
+		}
+		return used;
+	}
+
+	// Only live threads are counted, so a thread which ends takes its allocations with it; the delta is clamped at 0
+	private long allocatedBytes() {
+		long total = 0;
+		for (long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+			if (allocated > 0) {
+				total += allocated;
+			}
+		}
+		return total;
+	}
+
+	private long persistenceSize() {
+		try (Stream<Path> directories = Files.list(persistenceDirectory)) {
+			return directories.filter(path -> path.getFileName().toString().startsWith(clientID)).mapToLong(SoakMetrics::size).sum();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+
+	private static long size(Path directory) {
+		try (Stream<Path> files = Files.walk(directory)) {
+			return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+		} catch (IOException e) {
+			return 0;
+		}
+	}
+}
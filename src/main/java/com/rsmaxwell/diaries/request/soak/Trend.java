@@ -0,0 +1,125 @@
+package com.rsmaxwell.diaries.request.soak;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The samples of one metric over a soak run, and whether the metric kept growing.
+ *
+ * The first quarter of the run is treated as warm-up. Over the rest, the metric is growing without bound when all of
+ * these hold:
+ * <ul>
+ * <li>the least-squares line rises by more than the tolerance (a fraction of the mean), and by more than the floor:
+ * the smallest change in the metric worth reporting</li>
+ * <li>the slope is more than the metric's minimum slope per hour</li>
+ * <li>the growth is sustained: split into {@link #WINDOWS} windows, the mean of each is higher than that of the one
+ * before</li>
+ * </ul>
+ * So a single step, such as one reply which never arrives, is not growth.
+ */
+public class Trend {
+
+	public static final int WINDOWS = 4;
+
+	private final String name;
+	private final String unit;
+	private final double floor;
+	private final double slopePerHour;
+	private final List<double[]> samples = new ArrayList<double[]>();
+
+	public Trend(String name, String unit, double floor, double slopePerHour) {
+		this.name = name;
+		this.unit = unit;
+		this.floor = floor;
+		this.slopePerHour = slopePerHour;
+	}
+
+	public synchronized void add(double seconds, double value) {
+		samples.add(new double[] { seconds, value });
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getUnit() {
+		return unit;
+	}
+
+	public synchronized int size() {
+		return samples.size();
+	}
+
+	public synchronized double first() {
+		return samples.isEmpty() ? 0 : samples.get(0)[1];
+	}
+
+	public synchronized double last() {
+		return samples.isEmpty() ? 0 : samples.get(samples.size() - 1)[1];
+	}
+
+	/**
+	 * The slope of the least-squares line after warm-up, per second
+	 */
+	public synchronized double slope() {
+
+		List<double[]> steady = steady();
+		int n = steady.size();
+		if (n < 2) {
+			return 0;
+		}
+
+		double sumT = 0, sumV = 0;
+		for (double[] sample : steady) {
+			sumT += sample[0];
+			sumV += sample[1];
+		}
+		double meanT = sumT / n;
+		double meanV = sumV / n;
+
+		double numerator = 0, denominator = 0;
+		for (double[] sample : steady) {
+			numerator += (sample[0] - meanT) * (sample[1] - meanV);
+			denominator += (sample[0] - meanT) * (sample[0] - meanT);
+		}
+		return (denominator == 0) ? 0 : numerator / denominator;
+	}
+
+	public synchronized boolean isGrowing(double tolerance) {
+
+		List<double[]> steady = steady();
+		int n = steady.size();
+		if (n < 2 * WINDOWS) {
+			return false;
+		}
+
+		double slope = slope();
+		double span = steady.get(n - 1)[0] - steady.get(0)[0];
+		double growth = slope * span;
+		if (growth <= Math.max(tolerance * Math.abs(mean(steady, 0, n)), floor) || slope * 3600 <= slopePerHour) {
+			return false;
+		}
+
+		double previous = mean(steady, 0, n / WINDOWS);
+		for (int i = 1; i < WINDOWS; i++) {
+			double window = mean(steady, i * n / WINDOWS, (i + 1) * n / WINDOWS);
+			if (window <= previous) {
+				return false;
+			}
+			previous = window;
+		}
+		return true;
+	}
+
+	private List<double[]> steady() {
+		return samples.subList(samples.size() / 4, samples.size());
+	}
+
+	private static double mean(List<double[]> samples, int from, int to) {
+		double sum = 0;
+		for (int i = from; i < to; i++) {
+			sum += samples.get(i)[1];
+		}
+		return (to > from) ? sum / (to - from) : 0;
+	}
+}
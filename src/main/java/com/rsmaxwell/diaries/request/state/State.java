@@ -24,9 +24,13 @@ public class State {
 	private String accessToken;
 	private String refreshToken;
 
-	private static Path getFilePath() {
+	public static Path getDirectory() {
 		String home = System.getProperty("user.home");
-		return Paths.get(home, ".diaries", "state.json");
+		return Paths.get(home, ".diaries");
+	}
+
+	private static Path getFilePath() {
+		return getDirectory().resolve("state.json");
 	}
 
 	public static State read() throws Exception {
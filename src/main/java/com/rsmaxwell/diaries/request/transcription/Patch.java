@@ -0,0 +1,57 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A single splice which turns one version of a transcription into the next: delete 'delete' characters at 'offset',
+ * then insert 'insert' there.
+ *
+ * An edit in one place of a large fragment gives a patch whose size depends only on the edit.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Patch {
+
+	private int offset;
+	private int delete;
+	private String insert;
+
+	public static Patch diff(String base, String target) {
+
+		int limit = Math.min(base.length(), target.length());
+
+		int prefix = 0;
+		while (prefix < limit && base.charAt(prefix) == target.charAt(prefix)) {
+			prefix++;
+		}
+
+		int suffix = 0;
+		while (suffix < limit - prefix && base.charAt(base.length() - 1 - suffix) == target.charAt(target.length() - 1 - suffix)) {
+			suffix++;
+		}
+
+		// Never split a surrogate pair
+		if (prefix > 0 && Character.isHighSurrogate(base.charAt(prefix - 1))) {
+			prefix--;
+		}
+		if (suffix > 0 && Character.isLowSurrogate(base.charAt(base.length() - suffix))) {
+			suffix--;
+		}
+
+		return new Patch(prefix, base.length() - prefix - suffix, target.substring(prefix, target.length() - suffix));
+	}
+
+	public String apply(String base) {
+		if (offset < 0 || delete < 0 || offset + delete > base.length()) {
+			throw new IllegalArgumentException(String.format("patch does not fit: offset %d, delete %d, length %d", offset, delete, base.length()));
+		}
+		return base.substring(0, offset) + insert + base.substring(offset + delete);
+	}
+
+	public boolean isEmpty() {
+		return delete == 0 && insert.isEmpty();
+	}
+}
@@ -0,0 +1,13 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+/**
+ * The responder refused a transcription request because the page has moved on from the expected version
+ */
+public class RejectedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public RejectedException(String message) {
+		super(message);
+	}
+}
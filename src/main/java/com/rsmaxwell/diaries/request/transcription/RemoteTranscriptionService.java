@@ -0,0 +1,91 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+import java.util.Map;
+
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.client.StatusException;
+import com.rsmaxwell.mqtt.rpc.common.Request;
+import com.rsmaxwell.mqtt.rpc.common.Response;
+import com.rsmaxwell.mqtt.rpc.common.Status;
+
+/**
+ * The {@link TranscriptionService} of the responder, reached through a {@link DiariesClient}
+ */
+public class RemoteTranscriptionService implements TranscriptionService {
+
+	private final DiariesClient client;
+	private final String accessToken;
+
+	public RemoteTranscriptionService(DiariesClient client, String accessToken) {
+		this.client = client;
+		this.accessToken = accessToken;
+	}
+
+	@Override
+	public Transcription get(Long page) throws Exception {
+
+		Request request = new Request("getTranscription");
+		request.put("accessToken", accessToken);
+		request.put("page", page);
+
+		Object result = send(request);
+		if (!(result instanceof Map)) {
+			throw new Exception(String.format("Unexpected type: %s", result.getClass().getSimpleName()));
+		}
+		Map<?, ?> map = (Map<?, ?>) result;
+
+		return new Transcription(page, toVersion(map.get("version")), (String) map.get("html"));
+	}
+
+	@Override
+	public Long patch(Long page, Long version, Patch patch) throws Exception {
+
+		Request request = new Request("patchTranscription");
+		request.put("accessToken", accessToken);
+		request.put("page", page);
+		request.put("version", version);
+		request.put("offset", patch.getOffset());
+		request.put("delete", patch.getDelete());
+		request.put("insert", patch.getInsert());
+
+		return toVersion(send(request));
+	}
+
+	@Override
+	public Long put(Long page, Long version, String html) throws Exception {
+
+		Request request = new Request("putTranscription");
+		request.put("accessToken", accessToken);
+		request.put("page", page);
+		if (version != null) {
+			request.put("version", version);
+		}
+		request.put("html", html);
+
+		return toVersion(send(request));
+	}
+
+	private Object send(Request request) throws Exception {
+		Response response = client.request(request);
+		Status status = response.getStatus();
+		if (!status.isOk()) {
+			StatusException e = new StatusException(status);
+			Integer code = e.getCode();
+			if (code != null && code == CONFLICT) {
+				throw new RejectedException(status.getMessage());
+			}
+			if (code != null && code == UNPROCESSABLE && request.getFunction().equals("patchTranscription")) {
+				throw new UnappliedPatchException(status.getMessage());
+			}
+			throw e;
+		}
+		return response.getPayload();
+	}
+
+	static Long toVersion(Object object) throws Exception {
+		if (!(object instanceof Number)) {
+			throw new Exception(String.format("Unexpected version: %s", object));
+		}
+		return ((Number) object).longValue();
+	}
+}
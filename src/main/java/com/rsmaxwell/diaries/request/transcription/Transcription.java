@@ -0,0 +1,56 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.diaries.request.state.State;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The last version of a page's transcription which the responder acknowledged, kept in ~/.diaries/transcriptions
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class Transcription {
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	private Long page;
+	private Long version;
+	private String html;
+
+	public static Path getDirectory() {
+		return State.getDirectory().resolve("transcriptions");
+	}
+
+	private static Path getFilePath(Path directory, Long page) {
+		return directory.resolve(String.format("%d.json", page));
+	}
+
+	/**
+	 * Returns the acknowledged transcription of the page, or null if there is none
+	 */
+	public static Transcription read(Path directory, Long page) throws IOException {
+		File file = getFilePath(directory, page).toFile();
+		if (!file.exists()) {
+			return null;
+		}
+		return mapper.readValue(file, Transcription.class);
+	}
+
+	public void write(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		Path path = getFilePath(directory, page);
+		Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+		Files.write(temp, mapper.writeValueAsBytes(this));
+		Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+	}
+}
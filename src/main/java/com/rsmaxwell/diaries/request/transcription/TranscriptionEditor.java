@@ -0,0 +1,123 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.outbox.Outbox;
+
+/**
+ * Saves transcriptions by sending a {@link Patch} against the last acknowledged version, rather than the whole HTML
+ * fragment.
+ *
+ * If the responder cannot apply a patch, the whole fragment is uploaded instead, still on condition that the page is at
+ * the base version. If the page is no longer at the base version then someone else has saved a newer version in the
+ * meantime: the save fails with a {@link RejectedException} rather than overwrite their text, and the page should be
+ * loaded again.
+ *
+ * Saves made with {@link #saveLater} go through an {@link Outbox} as whole fragments, since the patch may no longer fit
+ * by the time they are sent. Once {@link #attach}ed, each is sent on condition that the page is still at the base
+ * version current when it is sent, which the acknowledgement of the one before it will have moved on.
+ */
+public class TranscriptionEditor {
+
+	private static final Logger log = LoggerFactory.getLogger(TranscriptionEditor.class);
+
+	private final TranscriptionService service;
+	private final Path directory;
+
+	public TranscriptionEditor(DiariesClient client, String accessToken) {
+		this(new RemoteTranscriptionService(client, accessToken), Transcription.getDirectory());
+	}
+
+	public TranscriptionEditor(TranscriptionService service, Path directory) {
+		this.service = service;
+		this.directory = directory;
+	}
+
+	/**
+	 * Fetch the current transcription of the page, and keep it as the base for later patches
+	 */
+	public Transcription load(Long page) throws Exception {
+		Transcription transcription = service.get(page);
+		transcription.write(directory);
+		return transcription;
+	}
+
+	/**
+	 * Save the html as the page's transcription, and return the new version
+	 */
+	public Long save(Long page, String html) throws Exception {
+
+		Transcription base = Transcription.read(directory, page);
+		Long baseVersion = (base == null) ? null : base.getVersion();
+
+		if (base != null) {
+			Patch patch = Patch.diff(base.getHtml(), html);
+			if (patch.isEmpty()) {
+				return base.getVersion();
+			}
+
+			try {
+				return acknowledged(page, html, service.patch(page, baseVersion, patch));
+			} catch (RejectedException e) {
+				throw changed(page, baseVersion, e);
+			} catch (UnappliedPatchException e) {
+				log.info("patch of page {} against version {} could not be applied: {}", page, baseVersion, e.getMessage());
+			}
+		}
+
+		try {
+			return acknowledged(page, html, service.put(page, baseVersion, html));
+		} catch (RejectedException e) {
+			if (baseVersion == null) {
+				throw e;
+			}
+			throw changed(page, baseVersion, e);
+		}
+	}
+
+	private static RejectedException changed(Long page, Long baseVersion, RejectedException e) {
+		log.warn("page {} has been changed by someone else since version {}: not saved", page, baseVersion);
+		return new RejectedException(String.format("page %d has changed since version %d; load it again before saving: %s", page, baseVersion, e.getMessage()));
+	}
+
+	/**
+	 * Send saves made through the outbox against the current base, and keep their acknowledged versions as the base
+	 * for later saves
+	 */
+	public void attach(Outbox outbox) {
+		outbox.onSending("putTranscription", (entry, request) -> {
+			Transcription base = Transcription.read(directory, ((Number) entry.getArgs().get("page")).longValue());
+			if (base != null) {
+				request.put("version", base.getVersion());
+			}
+		});
+		outbox.onAcknowledged("putTranscription", (entry, response) -> {
+			Long page = ((Number) entry.getArgs().get("page")).longValue();
+			acknowledged(page, (String) entry.getArgs().get("html"), RemoteTranscriptionService.toVersion(response.getPayload()));
+		});
+	}
+
+	/**
+	 * Accept the html as the page's transcription, to be sent when the outbox is next flushed. Returns the idempotency
+	 * key of the write.
+	 */
+	public String saveLater(Long page, String html, Outbox outbox) throws Exception {
+
+		Map<String, Object> args = new TreeMap<String, Object>();
+		args.put("page", page);
+		args.put("html", html);
+
+		return outbox.submit(String.format("page:%d", page), "putTranscription", args);
+	}
+
+	private Long acknowledged(Long page, String html, Long version) throws Exception {
+		new Transcription(page, version, html).write(directory);
+		return version;
+	}
+}
@@ -0,0 +1,28 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+/**
+ * The transcription requests understood by the responder.
+ *
+ * <pre>
+ * patchTranscription: page, version (the base), offset, delete, insert  -> the new version
+ * putTranscription:   page, [version (the expected current one)], html  -> the new version
+ * getTranscription:   page                                              -> { version, html }
+ * </pre>
+ *
+ * A patch, or a put with a version, is rejected with {@link #CONFLICT} when the page's current version is not the one
+ * given. A patch against the current version which cannot be applied to it fails with {@link #UNPROCESSABLE}.
+ */
+public interface TranscriptionService {
+
+	int CONFLICT = 409;
+	int UNPROCESSABLE = 422;
+
+	Transcription get(Long page) throws Exception;
+
+	Long patch(Long page, Long version, Patch patch) throws RejectedException, UnappliedPatchException, Exception;
+
+	/**
+	 * Replace the whole fragment. The version may be null, to replace whatever is there.
+	 */
+	Long put(Long page, Long version, String html) throws RejectedException, Exception;
+}
@@ -0,0 +1,13 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+/**
+ * The page is at the base version, but the responder could not apply the patch to it
+ */
+public class UnappliedPatchException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public UnappliedPatchException(String message) {
+		super(message);
+	}
+}
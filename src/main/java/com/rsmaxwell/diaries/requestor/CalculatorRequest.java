@@ -5,22 +5,17 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
-import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
-import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
-import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rsmaxwell.diaries.common.config.Config;
 import com.rsmaxwell.diaries.common.config.MqttConfig;
-import com.rsmaxwell.diaries.common.config.User;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
 import com.rsmaxwell.mqtt.rpc.common.Request;
 import com.rsmaxwell.mqtt.rpc.common.Response;
 import com.rsmaxwell.mqtt.rpc.common.Status;
-import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
-import com.rsmaxwell.mqtt.rpc.requestor.Token;
 
 public class CalculatorRequest {
 
@@ -28,8 +23,6 @@ public class CalculatorRequest {
 
 	static int qos = 0;
 
-	static private ObjectMapper mapper = new ObjectMapper();
-
 	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
 		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
 	}
@@ -58,31 +51,17 @@ public class CalculatorRequest {
 		String filename = commandLine.getOptionValue("config");
 		Config config = Config.read(filename);
 		MqttConfig mqtt = config.getMqtt();
-		String server = mqtt.getServer();
-		User user = mqtt.getUser();
 
 		int param1 = Integer.parseInt(A);
 		int param2 = Integer.parseInt(B);
 
-		String clientID = "requester";
+		String clientName = "requester";
 		String requestTopic = "request";
 
-		MqttClientPersistence persistence = new MqttDefaultFilePersistence();
-		MqttAsyncClient client = new MqttAsyncClient(server, clientID, persistence);
-		MqttConnectionOptions connOpts = new MqttConnectionOptions();
-		connOpts.setUserName(user.getUsername());
-		connOpts.setPassword(user.getPassword().getBytes());
-
-		// Make an RPC instance
-		RemoteProcedureCall rpc = new RemoteProcedureCall(client, String.format("response/%s", clientID));
-
 		// Connect
-		log.debug(String.format("Connecting to broker: %s as '%s'", server, clientID));
-		client.connect(connOpts).waitForCompletion();
-		log.debug(String.format("Client %s connected", clientID));
-
-		// Subscribe to the responseTopic
-		rpc.subscribeToResponseTopic();
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		connection.connect();
 
 		// Make a request
 		Request request = new Request("calculator");
@@ -90,25 +69,22 @@ public class CalculatorRequest {
 		request.put("param1", param1);
 		request.put("param2", param2);
 
-		// Send the request as a json string
-		byte[] bytes = mapper.writeValueAsBytes(request);
-		Token token = rpc.request(requestTopic, bytes);
-
-		// Wait for the response to arrive
-		Response response = token.waitForResponse();
+		// Send the request and wait for the response to arrive
+		DiariesClient diariesClient = new DiariesClient(connection, requestTopic, null);
+		Response response = diariesClient.request(request);
 		Status status = response.getStatus();
 
 		// Handle the response
 		if (status.isOk()) {
 			Integer result = (Integer) response.getPayload();
-			log.info(String.format("payload: %d", result));
+			log.info("payload: {}", result);
 		} else {
-			log.info(String.format("status: %s", status.toString()));
+			log.info("status: {}", status);
 		}
 
 		// Disconnect
-		client.disconnect().waitForCompletion();
-		log.debug(String.format("Client %s disconnected", clientID));
+		diariesClient.close();
+		connection.disconnect();
 		log.debug("exiting");
 	}
 }
@@ -1,46 +1,36 @@
 package com.rsmaxwell.diaries.requestor;
 
-import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
-import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
-import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
-import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rsmaxwell.diaries.common.config.Config;
 import com.rsmaxwell.diaries.common.config.MqttConfig;
-import com.rsmaxwell.diaries.common.config.User;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.client.Prefetcher;
+import com.rsmaxwell.diaries.request.index.PageIndex;
 import com.rsmaxwell.diaries.request.model.Diary;
 import com.rsmaxwell.diaries.request.model.Page;
 import com.rsmaxwell.diaries.request.state.State;
-import com.rsmaxwell.mqtt.rpc.common.Request;
-import com.rsmaxwell.mqtt.rpc.common.Response;
-import com.rsmaxwell.mqtt.rpc.common.Status;
-import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
-import com.rsmaxwell.mqtt.rpc.requestor.Token;
 
 public class GetPagesRequest {
 
 	private static final Logger log = LoggerFactory.getLogger(GetPagesRequest.class);
 
 	static final int qos = 0;
-	static final String clientID = "requester";
+	static final String clientName = "requester";
 	static final String requestTopic = "request";
 
 	private static State state;
 
-	static private ObjectMapper mapper = new ObjectMapper();
-
 	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
 		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
 	}
@@ -48,148 +38,80 @@ public class GetPagesRequest {
 	public static void main(String[] args) throws Exception {
 
 		state = State.read();
-		log.info(String.format("state:\n%s", state.toJson()));
+		if (log.isDebugEnabled()) {
+			log.debug("state:\n{}", state.toJson());
+		}
 
 		Option configOption = createOption("c", "config", "Configuration", "Configuration", true);
+		Option browseOption = createOption("b", "browse", "Browse", "Number of diaries to step through, as the viewer does", false);
+		Option pauseOption = createOption("p", "pause", "Pause", "Milliseconds spent reading each diary while browsing", false);
 
 		// @formatter:off
 		Options options = new Options();
-		options.addOption(configOption);
+		options.addOption(configOption)
+			   .addOption(browseOption)
+			   .addOption(pauseOption);
 		// @formatter:on
 
 		CommandLineParser commandLineParser = new DefaultParser();
 		CommandLine commandLine = commandLineParser.parse(options, args);
+		int browse = Integer.parseInt(commandLine.getOptionValue(browseOption, "1"));
+		long pause = Long.parseLong(commandLine.getOptionValue(pauseOption, "1000"));
 
 		String filename = commandLine.getOptionValue("config");
 		Config config = Config.read(filename);
 		MqttConfig mqtt = config.getMqtt();
-		String server = mqtt.getServer();
-		User user = mqtt.getUser();
-
-		MqttClientPersistence persistence = new MqttDefaultFilePersistence();
-		MqttAsyncClient client = new MqttAsyncClient(server, clientID, persistence);
-		MqttConnectionOptions connOpts = new MqttConnectionOptions();
-		connOpts.setUserName(user.getUsername());
-		connOpts.setPassword(user.getPassword().getBytes());
-
-		// Make an RPC instance
-		RemoteProcedureCall rpc = new RemoteProcedureCall(client, String.format("response/%s", clientID));
 
 		// Connect
-		log.debug(String.format("Connecting to broker: %s as '%s'", server, clientID));
-		client.connect(connOpts).waitForCompletion();
-		log.debug(String.format("Client %s connected", clientID));
-
-		// Subscribe to the responseTopic
-		rpc.subscribeToResponseTopic();
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		connection.connect();
 
 		// *********************************************************************************************
 
-		List<Diary> diaries = getDiaries(rpc);
-		log.info(String.format("Diaries:"));
+		DiariesClient diariesClient = new DiariesClient(connection, requestTopic, state.getAccessToken());
+
+		PageIndex pageIndex = PageIndex.read();
+		diariesClient.setPageIndex(pageIndex);
+
+		List<Diary> diaries = diariesClient.getDiaries();
+		log.info("Diaries:");
 		for (Diary diary : diaries) {
-			log.info(String.format("    %s", diary));
+			log.info("    {}", diary);
 		}
 
 		if (diaries.size() < 1) {
 			throw new Exception("No diaries found");
 		}
-		Diary diary = diaries.get(0);
-
-		List<Page> pages = getPages(rpc, diary);
-
-		log.info(String.format("Pages:"));
-		for (Page page : pages) {
-			log.info(String.format("    %s", page));
-		}
-
-		// *********************************************************************************************
-
-		// Disconnect
-		client.disconnect().waitForCompletion();
-		log.debug(String.format("Client %s disconnected", clientID));
-		log.debug("exiting");
-	}
-
-	private static List<Diary> getDiaries(RemoteProcedureCall rpc) throws Exception {
-
-		List<Diary> diaries = new ArrayList<Diary>();
-
-		// Make a request
-		Request request = new Request("getDiaries");
-		request.put("accessToken", state.getAccessToken());
 
-		// Send the request as a json string
-		byte[] bytes = mapper.writeValueAsBytes(request);
-		Token token = rpc.request(requestTopic, bytes);
+		// Step through the diaries, prefetching the next one's pages while the current one is shown
+		Prefetcher<Long, List<Page>> prefetcher = Prefetcher.forPages(diariesClient, diaries);
+		int count = Math.min(browse, diaries.size());
+		for (int i = 0; i < count; i++) {
+			Diary diary = diaries.get(i);
+			List<Page> pages = prefetcher.get(diary.getId());
 
-		// Wait for the response to arrive
-		Response response = token.waitForResponse();
-		Status status = response.getStatus();
-
-		// Handle the response
-		if (status.isOk()) {
-
-			Object result = response.getPayload();
-			if (!(result instanceof List<?>)) {
-				throw new Exception(String.format("Unexpected type: %s", result.getClass().getSimpleName()));
+			log.info("Pages of {}:", diary.getName());
+			for (Page page : pages) {
+				log.info("    {}", page);
 			}
 
-			ArrayList<?> list = (ArrayList<?>) result;
-			for (Object item : list) {
-
-				if (!(item instanceof Map)) {
-					throw new Exception(String.format("Unexpected type: %s", item.getClass().getSimpleName()));
-				}
-				Map<?, ?> map = (Map<?, ?>) item;
-				Diary d = new Diary(map);
-				diaries.add(d);
+			// The time the user spends on a diary is what gives the prefetch of the next one a chance to arrive
+			if (i + 1 < count) {
+				Thread.sleep(pause);
 			}
-
-		} else {
-			throw new Exception(String.format("status: %s", status.getMessage()));
 		}
+		prefetcher.close();
+		log.info("Prefetch: {}", prefetcher);
 
-		return diaries;
-	}
-
-	private static List<Page> getPages(RemoteProcedureCall rpc, Diary diary) throws Exception {
-		List<Page> pages = new ArrayList<Page>();
-
-		// Make a request
-		Request request = new Request("getPages");
-		request.put("diary", diary.getId());
-
-		// Send the request as a json string
-		byte[] bytes = mapper.writeValueAsBytes(request);
-		Token token = rpc.request(requestTopic, bytes);
-
-		// Wait for the response to arrive
-		Response response = token.waitForResponse();
-		Status status = response.getStatus();
+		pageIndex.write();
+		log.info("Page index: {} pages", pageIndex.size());
 
-		// Handle the response
-		if (status.isOk()) {
-			Object result = response.getPayload();
-			if (!(result instanceof List<?>)) {
-				throw new Exception(String.format("Unexpected type: %s", result.getClass().getSimpleName()));
-			}
-
-			ArrayList<?> list = (ArrayList<?>) result;
-			for (Object item : list) {
-
-				if (!(item instanceof Map)) {
-					throw new Exception(String.format("Unexpected type: %s", item.getClass().getSimpleName()));
-				}
-				Map<?, ?> map = (Map<?, ?>) item;
-				Page p = new Page(map);
-				pages.add(p);
-			}
-
-		} else {
-			throw new Exception(String.format("status: %s", status.toString()));
-		}
+		// *********************************************************************************************
 
-		return pages;
+		// Disconnect
+		diariesClient.close();
+		connection.disconnect();
+		log.debug("exiting");
 	}
 }
@@ -0,0 +1,109 @@
+package com.rsmaxwell.diaries.requestor;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.logging.log4j.LogManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rsmaxwell.diaries.request.log.RequestLog;
+
+/**
+ * Measures the logging overhead per request: eager String.format at a disabled level, parameterised messages at a
+ * disabled level, and the structured request events written through the asynchronous events logger.
+ *
+ * The events are only measured when they are enabled (events_level INFO or lower), since otherwise
+ * {@link RequestLog} returns before doing any work. Redirect stdout to a file or /dev/null so the console does not
+ * become the bottleneck. Once the async logger's ring buffer (log4j2.asyncLoggerConfigRingBufferSize, 4096 events by
+ * default in garbage-free mode) is full, each event waits for one to be written out, so the time per event is then the
+ * cost of writing it rather than of handing it over.
+ */
+public class LoggingBenchmark {
+
+	private static final Logger log = LoggerFactory.getLogger(LoggingBenchmark.class);
+
+	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
+		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
+	}
+
+	interface Body {
+		void run(int i);
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Option iterationsOption = createOption("n", "iterations", "Iterations", "Number of requests to simulate", false);
+
+		// @formatter:off
+		Options options = new Options();
+		options.addOption(iterationsOption);
+		// @formatter:on
+
+		CommandLineParser commandLineParser = new DefaultParser();
+		CommandLine commandLine = commandLineParser.parse(options, args);
+		int iterations = Integer.parseInt(commandLine.getOptionValue(iterationsOption, "10000"));
+
+		String server = "tcp://localhost:1883";
+		String clientID = "requester";
+		byte[] request = "{\"function\":\"getPages\",\"args\":{\"diary\":1}}".getBytes(StandardCharsets.UTF_8);
+		List<Map<String, Object>> payload = List.of(Map.of("id", 1, "name", "1893-02-14"), Map.of("id", 2, "name", "1893-02-15"));
+
+		if (!LogManager.getLogger(RequestLog.LOGGER_NAME).isInfoEnabled()) {
+			throw new Exception("The request events are disabled: set events_level=INFO to measure them");
+		}
+		RequestLog requestLog = new RequestLog();
+
+		// @formatter:off
+		double eager = measure(iterations, i -> {
+			log.debug(String.format("Connecting to broker: %s as '%s'", server, clientID));
+			log.debug(String.format("request %d: %s", i, new String(request, StandardCharsets.UTF_8)));
+		});
+
+		double parameterised = measure(iterations, i -> {
+			log.debug("Connecting to broker: {} as '{}'", server, clientID);
+			log.debug("request {}: {}", i, request);
+		});
+
+		double events = measure(iterations, i -> {
+			long id = requestLog.begin("getPages", request);
+			requestLog.end(id, true, 1_500_000, payload);
+		});
+		// @formatter:on
+
+		log.info("eager String.format (disabled level): {} ns/request", Math.round(eager));
+		log.info("parameterised (disabled level):       {} ns/request", Math.round(parameterised));
+		log.info("structured request events (INFO):     {} ns/request", Math.round(events));
+
+		// The events are meant to be garbage-free on the calling thread
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long before = threads.getCurrentThreadAllocatedBytes();
+		for (int i = 0; i < iterations; i++) {
+			long id = requestLog.begin("getPages", request);
+			requestLog.end(id, true, 1_500_000, payload);
+		}
+		long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+		log.info("structured request events (INFO):     {} bytes/request allocated", allocated / iterations);
+	}
+
+	private static double measure(int iterations, Body body) {
+
+		// Warm up, so the JIT has compiled the path being measured
+		for (int i = 0; i < iterations; i++) {
+			body.run(i);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			body.run(i);
+		}
+		return (System.nanoTime() - start) / (double) iterations;
+	}
+}
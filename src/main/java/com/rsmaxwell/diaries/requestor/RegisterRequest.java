@@ -1,36 +1,32 @@
 package com.rsmaxwell.diaries.requestor;
 
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
-import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
-import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
-import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.rsmaxwell.diaries.common.config.Config;
 import com.rsmaxwell.diaries.common.config.MqttConfig;
-import com.rsmaxwell.diaries.common.config.User;
-import com.rsmaxwell.mqtt.rpc.common.Request;
-import com.rsmaxwell.mqtt.rpc.common.Response;
-import com.rsmaxwell.mqtt.rpc.common.Status;
-import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.outbox.Outbox;
 
 public class RegisterRequest {
 
 	private static final Logger log = LoggerFactory.getLogger(RegisterRequest.class);
 
 	static final int qos = 0;
-	static final String clientID = "requester";
+	static final String clientName = "requester";
 	static final String requestTopic = "request";
 
-	static private ObjectMapper mapper = new ObjectMapper();
-
 	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
 		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
 	}
@@ -65,48 +61,59 @@ public class RegisterRequest {
 		String filename = commandLine.getOptionValue("config");
 		Config config = Config.read(filename);
 		MqttConfig mqtt = config.getMqtt();
-		String server = mqtt.getServer();
-		User user = mqtt.getUser();
+
+		// Accept the registration into the outbox. The password is only held in memory, so the registration is sent in
+		// this run or not at all
+		Map<String, Object> registration = new TreeMap<String, Object>();
+		registration.put("username", commandLine.getOptionValue("username"));
+		registration.put("password", commandLine.getOptionValue("password"));
+		registration.put("firstname", commandLine.getOptionValue("firstname"));
+		registration.put("lastname", commandLine.getOptionValue("lastname"));
+		registration.put("knownas", commandLine.getOptionValue("knownas"));
+		registration.put("email", commandLine.getOptionValue("email"));
+		registration.put("phone", commandLine.getOptionValue("phone"));
+
+		Outbox outbox = new Outbox();
+		AtomicBoolean registered = new AtomicBoolean(false);
+		String key = outbox.submit(String.format("user:%s", registration.get("username")), "register", registration);
+		outbox.onAcknowledged("register", (entry, response) -> {
+			log.info("User Registered: '{}', id: {}", entry.getArgs().get("username"), response.getPayload());
+			if (entry.getKey().equals(key)) {
+				registered.set(true);
+			}
+		});
 
 		// Connect
-		MqttConnectionOptions connOpts = new MqttConnectionOptions();
-		connOpts.setUserName(user.getUsername());
-		connOpts.setPassword(user.getPassword().getBytes());
-
-		MqttClientPersistence persistence = new MqttDefaultFilePersistence();
-		MqttAsyncClient client = new MqttAsyncClient(server, clientID, persistence);
-		RemoteProcedureCall rpc = new RemoteProcedureCall(client, String.format("response/%s", clientID));
-
-		log.debug(String.format("Connecting to broker: %s as '%s'", server, clientID));
-		client.connect(connOpts).waitForCompletion();
-		rpc.subscribeToResponseTopic();
-
-		// Make a request
-		Request request = new Request("register");
-		request.put("username", commandLine.getOptionValue("username"));
-		request.put("password", commandLine.getOptionValue("password"));
-		request.put("firstname", commandLine.getOptionValue("firstname"));
-		request.put("lastname", commandLine.getOptionValue("lastname"));
-		request.put("knownas", commandLine.getOptionValue("knownas"));
-		request.put("email", commandLine.getOptionValue("email"));
-		request.put("phone", commandLine.getOptionValue("phone"));
-
-		// Send the request as a JSON string
-		byte[] bytes = mapper.writeValueAsBytes(request);
-		Response response = rpc.request(requestTopic, bytes).waitForResponse();
-		Status status = response.getStatus();
-
-		// Handle the response
-		if (status.isOk()) {
-			Long id = (Long) response.getPayload();
-			log.info(String.format("User Registered: '%s', id: %d", user.getUsername(), id));
-		} else {
-			log.info(String.format("status: %s", status.toString()));
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		try {
+			connection.connect();
+		} catch (Exception e) {
+			log.info("Could not connect ({}): registration not sent", e.getMessage());
+			outbox.close();
+			return;
+		}
+
+		// Send everything in the outbox, including writes left over from earlier runs
+		DiariesClient diariesClient = new DiariesClient(connection, requestTopic, null);
+		outbox.flushAll(diariesClient);
+
+		boolean queued = outbox.getPending().stream().anyMatch(entry -> entry.getKey().equals(key));
+		if (outbox.size() > 0) {
+			log.info("{} write(s) kept in the outbox until the next run", outbox.size());
 		}
 
 		// Disconnect
-		client.disconnect().waitForCompletion();
-		log.debug(String.format("Client %s disconnected", clientID));
-		log.info("Success");
+		outbox.close();
+		diariesClient.close();
+		connection.disconnect();
+
+		if (registered.get()) {
+			log.info("Success");
+		} else if (queued) {
+			log.info("Registration not sent: run this again, as the password is not kept");
+		} else {
+			log.info("Registration was refused");
+		}
 	}
 }
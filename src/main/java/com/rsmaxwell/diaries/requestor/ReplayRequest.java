@@ -0,0 +1,201 @@
+package com.rsmaxwell.diaries.requestor;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.diaries.common.config.Config;
+import com.rsmaxwell.diaries.common.config.MqttConfig;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.record.Redactor;
+import com.rsmaxwell.diaries.request.record.RpcRecording;
+import com.rsmaxwell.diaries.request.record.RpcRecording.Exchange;
+import com.rsmaxwell.diaries.request.state.State;
+import com.rsmaxwell.mqtt.rpc.common.Response;
+import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
+import com.rsmaxwell.mqtt.rpc.requestor.Token;
+
+/**
+ * Re-issues the requests in a recording (see DIARIES_RECORD), keeping the recorded spacing scaled by the speed, and
+ * compares the latency and content of each response with the recording.
+ *
+ * Only reads ({@link DiariesClient#isRead}) are replayed unless --allow-writes is given. Recorded access tokens
+ * are redacted, so the current one from the saved state is used instead. Each recorded session (run) is replayed
+ * straight after the previous one, rather than after the gap between the runs.
+ */
+public class ReplayRequest {
+
+	private static final Logger log = LoggerFactory.getLogger(ReplayRequest.class);
+
+	static final int qos = 0;
+	static final String clientName = "replayer";
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
+		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
+	}
+
+	static class Result {
+		long recordedNanos;
+		long replayedNanos;
+		boolean matched;
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Option configOption = createOption("c", "config", "Configuration", "Configuration", true);
+		Option recordingOption = createOption("r", "recording", "Recording", "Recording file", true);
+		Option speedOption = createOption("s", "speed", "Speed", "Speed ( 1, N or max )", false);
+		Option allowWritesOption = Option.builder("w").longOpt("allow-writes").desc("Also replay requests which are not reads").build();
+
+		// @formatter:off
+		Options options = new Options();
+		options.addOption(configOption)
+			   .addOption(recordingOption)
+			   .addOption(speedOption)
+			   .addOption(allowWritesOption);
+		// @formatter:on
+
+		CommandLineParser commandLineParser = new DefaultParser();
+		CommandLine commandLine = commandLineParser.parse(options, args);
+
+		String speedValue = commandLine.getOptionValue(speedOption, "1");
+		double speed = speedValue.equalsIgnoreCase("max") ? Double.POSITIVE_INFINITY : Double.parseDouble(speedValue);
+		if (!(speed > 0)) {
+			throw new Exception(String.format("invalid speed: %s", speedValue));
+		}
+
+		List<Exchange> recording = RpcRecording.read(Paths.get(commandLine.getOptionValue(recordingOption)));
+		List<Exchange> exchanges = select(recording, commandLine.hasOption(allowWritesOption));
+		int skipped = recording.size() - exchanges.size();
+		if (exchanges.isEmpty()) {
+			throw new Exception("No requests to replay in the recording");
+		}
+		log.info("Replaying {} requests at speed {} ({} writes skipped)", exchanges.size(), speedValue, skipped);
+
+		State state = State.read();
+		String accessToken = state.getAccessToken();
+
+		String filename = commandLine.getOptionValue("config");
+		Config config = Config.read(filename);
+		MqttConfig mqtt = config.getMqtt();
+
+		// Connect
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		connection.connect();
+		RemoteProcedureCall rpc = connection.getRpc();
+
+		// Issue each request at its (scaled) recorded offset, without waiting for earlier responses
+		ExecutorService executor = Executors.newCachedThreadPool();
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+
+		// Offsets are taken from the first request of each session, and each session follows on from the last
+		long replayStart = System.nanoTime();
+		int session = -1;
+		long sessionStart = 0;
+		long sessionOffset = 0;
+		long offset = 0;
+
+		for (Exchange exchange : exchanges) {
+
+			if (exchange.getSession() != session) {
+				session = exchange.getSession();
+				sessionStart = exchange.getRequestTime();
+				sessionOffset = offset;
+			}
+			offset = sessionOffset + (exchange.getRequestTime() - sessionStart);
+
+			if (speed != Double.POSITIVE_INFINITY) {
+				long due = replayStart + (long) (offset / speed);
+				long delay = due - System.nanoTime();
+				if (delay > 0) {
+					TimeUnit.NANOSECONDS.sleep(delay);
+				}
+			}
+
+			byte[] request = Redactor.restoreAccessToken(exchange.getRequest(), accessToken);
+
+			long sent = System.nanoTime();
+			Token token = rpc.request(exchange.getTopic(), request);
+
+			futures.add(executor.submit(() -> {
+				Response response = token.waitForResponse();
+				Result result = new Result();
+				result.replayedNanos = System.nanoTime() - sent;
+				if (exchange.hasResponse()) {
+					result.recordedNanos = exchange.getLatencyNanos();
+					result.matched = Arrays.equals(exchange.getResponse(), Redactor.redact(mapper.writeValueAsBytes(response)));
+				}
+				return result;
+			}));
+		}
+
+		List<Long> recorded = new ArrayList<Long>();
+		List<Long> replayed = new ArrayList<Long>();
+		int mismatches = 0;
+		for (int i = 0; i < futures.size(); i++) {
+			Result result = futures.get(i).get();
+			replayed.add(result.replayedNanos);
+			if (exchanges.get(i).hasResponse()) {
+				recorded.add(result.recordedNanos);
+				if (!result.matched) {
+					mismatches++;
+					log.debug("response {} differs from the recording", i);
+				}
+			}
+		}
+		long elapsed = System.nanoTime() - replayStart;
+		executor.shutdown();
+
+		log.info(String.format("requests:   %d in %.1f ms", exchanges.size(), elapsed / 1e6));
+		log.info(String.format("latency:    recorded p50 %.2f ms, p95 %.2f ms", percentile(recorded, 50), percentile(recorded, 95)));
+		log.info(String.format("            replayed p50 %.2f ms, p95 %.2f ms", percentile(replayed, 50), percentile(replayed, 95)));
+		log.info("content:    {} of {} responses differ from the recording", mismatches, recorded.size());
+
+		// Disconnect
+		connection.disconnect();
+		log.debug("exiting");
+	}
+
+	/**
+	 * The exchanges to replay: all of them if writes are allowed, otherwise only the reads. Exchanges whose function
+	 * was not recorded are treated as writes.
+	 */
+	static List<Exchange> select(List<Exchange> recording, boolean allowWrites) {
+		List<Exchange> exchanges = new ArrayList<Exchange>();
+		for (Exchange exchange : recording) {
+			if (allowWrites || DiariesClient.isRead(exchange.getFunction())) {
+				exchanges.add(exchange);
+			}
+		}
+		return exchanges;
+	}
+
+	private static double percentile(List<Long> nanos, int percent) {
+		if (nanos.isEmpty()) {
+			return 0;
+		}
+		List<Long> sorted = new ArrayList<Long>(nanos);
+		sorted.sort(null);
+		int index = (int) Math.ceil(percent / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index)) / 1e6;
+	}
+}
@@ -0,0 +1,78 @@
+package com.rsmaxwell.diaries.requestor;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rsmaxwell.diaries.common.config.Config;
+import com.rsmaxwell.diaries.common.config.MqttConfig;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.state.State;
+import com.rsmaxwell.diaries.request.transcription.TranscriptionEditor;
+
+public class SaveTranscriptionRequest {
+
+	private static final Logger log = LoggerFactory.getLogger(SaveTranscriptionRequest.class);
+
+	static final int qos = 0;
+	static final String clientName = "requester";
+	static final String requestTopic = "request";
+
+	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
+		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		State state = State.read();
+		if (log.isDebugEnabled()) {
+			log.debug("state:\n{}", state.toJson());
+		}
+
+		Option configOption = createOption("c", "config", "Configuration", "Configuration", true);
+		Option pageOption = createOption("p", "page", "Page", "Page id", true);
+		Option fileOption = createOption("f", "file", "File", "HTML transcription", true);
+
+		// @formatter:off
+		Options options = new Options();
+		options.addOption(configOption)
+			   .addOption(pageOption)
+			   .addOption(fileOption);
+		// @formatter:on
+
+		CommandLineParser commandLineParser = new DefaultParser();
+		CommandLine commandLine = commandLineParser.parse(options, args);
+		Long page = Long.parseLong(commandLine.getOptionValue(pageOption));
+		String html = new String(Files.readAllBytes(Paths.get(commandLine.getOptionValue(fileOption))), StandardCharsets.UTF_8);
+
+		String filename = commandLine.getOptionValue("config");
+		Config config = Config.read(filename);
+		MqttConfig mqtt = config.getMqtt();
+
+		// Connect
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		connection.connect();
+
+		// Save the transcription
+		DiariesClient diariesClient = new DiariesClient(connection, requestTopic, state.getAccessToken());
+		TranscriptionEditor editor = new TranscriptionEditor(diariesClient, state.getAccessToken());
+		Long version = editor.save(page, html);
+		log.info("Page {} saved as version {}", page, version);
+
+		// Disconnect
+		diariesClient.close();
+		connection.disconnect();
+		log.debug("exiting");
+	}
+}
@@ -5,10 +5,6 @@ import org.apache.commons.cli.CommandLineParser;
 import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import org.eclipse.paho.mqttv5.client.MqttAsyncClient;
-import org.eclipse.paho.mqttv5.client.MqttClientPersistence;
-import org.eclipse.paho.mqttv5.client.MqttConnectionOptions;
-import org.eclipse.paho.mqttv5.client.persist.MqttDefaultFilePersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,17 +14,19 @@ import com.rsmaxwell.diaries.common.config.Config;
 import com.rsmaxwell.diaries.common.config.MqttConfig;
 import com.rsmaxwell.diaries.common.config.User;
 import com.rsmaxwell.diaries.common.response.SigninReply;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
 import com.rsmaxwell.mqtt.rpc.common.Request;
 import com.rsmaxwell.mqtt.rpc.common.Response;
 import com.rsmaxwell.mqtt.rpc.common.Status;
-import com.rsmaxwell.mqtt.rpc.requestor.RemoteProcedureCall;
 
 public class SignInRequest {
 
 	private static final Logger log = LoggerFactory.getLogger(SignInRequest.class);
 
 	static final int qos = 0;
-	static final String clientID = "requester";
+	static final String clientName = "requester";
 	static final String requestTopic = "request";
 
 	static private ObjectMapper mapper = new ObjectMapper();
@@ -56,37 +54,28 @@ public class SignInRequest {
 		String filename = commandLine.getOptionValue("config");
 		Config config = Config.read(filename);
 		MqttConfig mqtt = config.getMqtt();
-		String server = mqtt.getServer();
 		User user = mqtt.getUser();
 
 		// Connect
-		MqttConnectionOptions connOpts = new MqttConnectionOptions();
-		connOpts.setUserName(user.getUsername());
-		connOpts.setPassword(user.getPassword().getBytes());
-
-		MqttClientPersistence persistence = new MqttDefaultFilePersistence();
-		MqttAsyncClient client = new MqttAsyncClient(server, clientID, persistence);
-		RemoteProcedureCall rpc = new RemoteProcedureCall(client, String.format("response/%s", clientID));
-
-		log.debug(String.format("Connecting to broker: %s as '%s'", server, clientID));
-		client.connect(connOpts).waitForCompletion();
-		rpc.subscribeToResponseTopic();
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		connection.connect();
 
 		// Make a request
 		Request request = new Request("signin");
 		request.put("username", commandLine.getOptionValue("username"));
 		request.put("password", commandLine.getOptionValue("password"));
 
-		// Send the request as a JSON string
-		byte[] bytes = mapper.writeValueAsBytes(request);
-		Response response = rpc.request(requestTopic, bytes).waitForResponse();
+		// Send the request and wait for the response to arrive
+		DiariesClient diariesClient = new DiariesClient(connection, requestTopic, null);
+		Response response = diariesClient.request(request);
 		Status status = response.getStatus();
 
 		// Handle the response
 		if (!status.isOk()) {
-			log.info(String.format("status %s", status.toString()));
+			log.info("status {}", status);
 		} else {
-			log.info(String.format("'%s' is signed-in", user.getUsername()));
+			log.info("'{}' is signed-in", user.getUsername());
 
 			String json = (String) response.getPayload();
 			SigninReply payload = null;
@@ -99,12 +88,13 @@ public class SignInRequest {
 			String accessToken = payload.getAccessToken();
 			String refreshToken = payload.getRefreshToken();
 
-			log.info(String.format("accessToken:  %s", accessToken));
-			log.info(String.format("refreshToken: %s", refreshToken));
+			log.info("accessToken:  {}", accessToken);
+			log.info("refreshToken: {}", refreshToken);
 			log.info("Success");
 		}
 
 		// Disconnect
-		client.disconnect().waitForCompletion();
+		diariesClient.close();
+		connection.disconnect();
 	}
 }
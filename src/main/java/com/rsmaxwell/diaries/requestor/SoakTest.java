@@ -0,0 +1,188 @@
+package com.rsmaxwell.diaries.requestor;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.rsmaxwell.diaries.common.config.Config;
+import com.rsmaxwell.diaries.common.config.MqttConfig;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.diaries.request.client.Priority;
+import com.rsmaxwell.diaries.request.model.Diary;
+import com.rsmaxwell.diaries.request.soak.SoakMetrics;
+import com.rsmaxwell.diaries.request.soak.Trend;
+import com.rsmaxwell.diaries.request.state.State;
+import com.rsmaxwell.mqtt.rpc.common.Request;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+/**
+ * Runs a steady mix of requests for hours against a local broker and responder, while JDK Flight Recorder records the
+ * run. At the end it reports the trend of each leak metric, and fails if any of them kept growing, or if requests
+ * stopped completing.
+ */
+public class SoakTest {
+
+	private static final Logger log = LoggerFactory.getLogger(SoakTest.class);
+
+	static final String clientName = "soak";
+	static final String requestTopic = "request";
+
+	static final int WORKERS = 8;
+
+	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
+		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		State state = State.read();
+
+		Option configOption = createOption("c", "config", "Configuration", "Configuration", true);
+		Option durationOption = createOption("d", "duration", "Duration", "Duration in minutes", false);
+		Option rateOption = createOption("r", "rate", "Rate", "Requests per second", false);
+		Option intervalOption = createOption("i", "interval", "Interval", "Seconds between samples", false);
+		Option jfrOption = createOption("j", "jfr", "Recording", "Flight recording file", false);
+		Option toleranceOption = createOption("t", "tolerance", "Tolerance", "Allowed growth, as a fraction of the mean", false);
+
+		// @formatter:off
+		Options options = new Options();
+		options.addOption(configOption)
+			   .addOption(durationOption)
+			   .addOption(rateOption)
+			   .addOption(intervalOption)
+			   .addOption(jfrOption)
+			   .addOption(toleranceOption);
+		// @formatter:on
+
+		CommandLineParser commandLineParser = new DefaultParser();
+		CommandLine commandLine = commandLineParser.parse(options, args);
+		long duration = Long.parseLong(commandLine.getOptionValue(durationOption, "240"));
+		int rate = Integer.parseInt(commandLine.getOptionValue(rateOption, "20"));
+		long interval = Long.parseLong(commandLine.getOptionValue(intervalOption, "60"));
+		Path jfr = Paths.get(commandLine.getOptionValue(jfrOption, "soak.jfr"));
+		double tolerance = Double.parseDouble(commandLine.getOptionValue(toleranceOption, "0.1"));
+
+		String filename = commandLine.getOptionValue("config");
+		Config config = Config.read(filename);
+		MqttConfig mqtt = config.getMqtt();
+
+		// Connect, and keep the connection up for the whole run
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		connection.startMonitor(5, TimeUnit.SECONDS);
+		connection.connect();
+
+		DiariesClient diariesClient = new DiariesClient(connection, requestTopic, state.getAccessToken());
+		List<Diary> diaries = diariesClient.getDiaries();
+		if (diaries.isEmpty()) {
+			throw new Exception("No diaries found");
+		}
+
+		// Record the run
+		Recording recording = new Recording(Configuration.getConfiguration("default"));
+		recording.setName("diaries-soak");
+		recording.setToDisk(true);
+		recording.setDestination(jfr);
+		recording.start();
+
+		AtomicLong completed = new AtomicLong();
+		AtomicLong failed = new AtomicLong();
+		AtomicLong skipped = new AtomicLong();
+
+		// A bounded queue, so requests which never complete show up as skipped rather than as unbounded growth
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(WORKERS, WORKERS, 0, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(rate * 10),
+				(runnable, executor) -> skipped.incrementAndGet());
+
+		SoakMetrics metrics = new SoakMetrics(diariesClient::getUnanswered, Paths.get(System.getProperty("user.dir")), connection.getClientID());
+
+		ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+		scheduler.scheduleAtFixedRate(() -> workers.execute(() -> {
+			try {
+				send(diariesClient, diaries);
+				completed.incrementAndGet();
+			} catch (Exception e) {
+				failed.incrementAndGet();
+				log.debug("request failed: {}", e.getMessage());
+			}
+		}), 0, 1_000_000 / rate, TimeUnit.MICROSECONDS);
+
+		long[] previous = { 0 };
+		long[] stalled = { 0 };
+		scheduler.scheduleAtFixedRate(() -> {
+			metrics.sample();
+			long done = completed.get();
+			if (done == previous[0]) {
+				stalled[0]++;
+			}
+			log.info("completed: {}, failed: {}, skipped: {}, pending: {}, unanswered: {}", done, failed.get(), skipped.get(), diariesClient.getPending(),
+					diariesClient.getUnanswered());
+			previous[0] = done;
+		}, interval, interval, TimeUnit.SECONDS);
+
+		log.info("Soak test for {} minutes at {} requests per second, recording to {}", duration, rate, jfr);
+		TimeUnit.MINUTES.sleep(duration);
+
+		scheduler.shutdownNow();
+		workers.shutdownNow();
+		recording.stop();
+		recording.close();
+
+		// Report
+		boolean ok = stalled[0] == 0;
+		for (Trend trend : metrics.getTrends()) {
+			boolean growing = trend.isGrowing(tolerance);
+			ok = ok && !growing;
+			log.info(String.format("%-18s %10.1f -> %10.1f %-5s  slope %+.3f/hour  %s", trend.getName(), trend.first(), trend.last(), trend.getUnit(),
+					trend.slope() * 3600, growing ? "GROWING" : "steady"));
+		}
+		log.info("completed: {}, failed: {}, skipped: {}, intervals with no progress: {}", completed.get(), failed.get(), skipped.get(), stalled[0]);
+
+		diariesClient.close();
+		connection.disconnect();
+
+		if (!ok) {
+			log.info("Soak test FAILED");
+			System.exit(1);
+		}
+		log.info("Soak test passed");
+	}
+
+	private static void send(DiariesClient diariesClient, List<Diary> diaries) throws Exception {
+
+		int choice = ThreadLocalRandom.current().nextInt(10);
+
+		if (choice < 5) {
+			Diary diary = diaries.get(ThreadLocalRandom.current().nextInt(diaries.size()));
+			diariesClient.getPages(diary.getId());
+
+		} else if (choice < 8) {
+			diariesClient.getDiaries();
+
+		} else {
+			Request request = new Request("calculator");
+			request.put("operation", "add");
+			request.put("param1", choice);
+			request.put("param2", 1);
+			diariesClient.request(request, Priority.BULK);
+		}
+	}
+}
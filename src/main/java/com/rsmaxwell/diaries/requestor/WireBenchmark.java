@@ -0,0 +1,160 @@
+package com.rsmaxwell.diaries.requestor;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.eclipse.paho.mqttv5.common.MqttMessage;
+import org.eclipse.paho.mqttv5.common.packet.MqttProperties;
+import org.eclipse.paho.mqttv5.common.packet.MqttPublish;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.rsmaxwell.diaries.common.config.Config;
+import com.rsmaxwell.diaries.common.config.MqttConfig;
+import com.rsmaxwell.diaries.request.client.BrokerSelector;
+import com.rsmaxwell.diaries.request.client.Connection;
+import com.rsmaxwell.diaries.request.client.DiariesClient;
+import com.rsmaxwell.mqtt.rpc.common.Request;
+
+/**
+ * Compares the bytes on the wire for a calculator round trip: full topics with string correlation ids, topic aliases,
+ * and topic aliases with 8 byte binary correlation data. The PUBLISH packets are encoded by Paho.
+ *
+ * With --config, it also measures calculator calls per second against the broker, with and without topic aliases on
+ * the replies. Paho aliases the requests in both runs whenever the broker allows it, so the difference is the
+ * inbound direction only.
+ */
+public class WireBenchmark {
+
+	private static final Logger log = LoggerFactory.getLogger(WireBenchmark.class);
+
+	static final String clientName = "benchmark";
+	static final String requestTopic = "request";
+
+	static private ObjectMapper mapper = new ObjectMapper();
+
+	static Option createOption(String shortName, String longName, String argName, String description, boolean required) {
+		return Option.builder(shortName).longOpt(longName).argName(argName).desc(description).hasArg().required(required).build();
+	}
+
+	public static void main(String[] args) throws Exception {
+
+		Option configOption = createOption("c", "config", "Configuration", "Configuration", false);
+		Option callsOption = createOption("n", "calls", "Calls", "Number of calls to time", false);
+
+		// @formatter:off
+		Options options = new Options();
+		options.addOption(configOption)
+			   .addOption(callsOption);
+		// @formatter:on
+
+		CommandLineParser commandLineParser = new DefaultParser();
+		CommandLine commandLine = commandLineParser.parse(options, args);
+		int calls = Integer.parseInt(commandLine.getOptionValue(callsOption, "1000"));
+
+		// The response topic of the requestors
+		String responseTopic = "response/requester";
+
+		byte[] request = mapper.writeValueAsBytes(calculator());
+
+		// The reply carries a status and the result
+		Map<String, Object> status = new LinkedHashMap<String, Object>();
+		status.put("code", 200);
+		status.put("message", "OK");
+		Map<String, Object> reply = new LinkedHashMap<String, Object>();
+		reply.put("status", status);
+		reply.put("payload", 50);
+		byte[] response = mapper.writeValueAsBytes(reply);
+
+		byte[] stringId = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+		byte[] binaryId = ByteBuffer.allocate(Long.BYTES).putLong(123456789L).array();
+
+		// @formatter:off
+		int current = publish(requestTopic, null, responseTopic, stringId, request)
+				    + publish(responseTopic, null, null, stringId, response);
+		int aliased = publish("", 1, responseTopic, stringId, request)
+				    + publish("", 1, null, stringId, response);
+		int compact = publish("", 1, responseTopic, binaryId, request)
+				    + publish("", 1, null, binaryId, response);
+		// @formatter:on
+
+		log.info("bytes per calculator round trip (request + reply PUBLISH packets):");
+		log.info("    full topics, string correlation id:     {}", current);
+		log.info("    topic aliases, string correlation id:   {} ({}%)", aliased, percent(aliased, current));
+		log.info("    topic aliases, binary correlation data: {} ({}%)", compact, percent(compact, current));
+
+		if (!commandLine.hasOption(configOption)) {
+			return;
+		}
+
+		String filename = commandLine.getOptionValue(configOption);
+		Config config = Config.read(filename);
+		MqttConfig mqtt = config.getMqtt();
+
+		double without = callsPerSecond(filename, mqtt, false, calls);
+		double with = callsPerSecond(filename, mqtt, true, calls);
+
+		log.info("calculator calls per second (requests aliased by Paho in both runs):");
+		log.info("    without reply topic aliases: {}", Math.round(without));
+		log.info("    with reply topic aliases:    {}", Math.round(with));
+	}
+
+	private static Request calculator() {
+		Request request = new Request("calculator");
+		request.put("operation", "mul");
+		request.put("param1", 10);
+		request.put("param2", 5);
+		return request;
+	}
+
+	private static int publish(String topic, Integer alias, String responseTopic, byte[] correlation, byte[] payload) throws Exception {
+
+		MqttProperties properties = new MqttProperties();
+		properties.setTopicAlias(alias);
+		properties.setResponseTopic(responseTopic);
+		properties.setCorrelationData(correlation);
+
+		MqttMessage message = new MqttMessage(payload);
+		message.setQos(0);
+
+		return new MqttPublish(topic, message, properties).serialize().length;
+	}
+
+	private static double callsPerSecond(String filename, MqttConfig mqtt, boolean topicAliases, int calls) throws Exception {
+
+		Connection connection = new Connection(mqtt, clientName);
+		connection.setBrokers(BrokerSelector.read(filename, mqtt));
+		connection.setTopicAliases(topicAliases);
+		connection.connect();
+
+		DiariesClient diariesClient = new DiariesClient(connection, requestTopic, null);
+
+		// Warm up
+		for (int i = 0; i < calls / 10; i++) {
+			diariesClient.request(calculator());
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < calls; i++) {
+			diariesClient.request(calculator());
+		}
+		long elapsed = System.nanoTime() - start;
+
+		diariesClient.close();
+		connection.disconnect();
+		return calls / (elapsed / 1e9);
+	}
+
+	private static long percent(int value, int base) {
+		return Math.round(100.0 * value / base);
+	}
+}
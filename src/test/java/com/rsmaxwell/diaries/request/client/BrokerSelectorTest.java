@@ -0,0 +1,80 @@
+package com.rsmaxwell.diaries.request.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.rsmaxwell.diaries.request.client.BrokerSelector.Strategy;
+
+class BrokerSelectorTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void roundRobinSpreadsTheFirstChoice() {
+
+		List<String> brokers = List.of("tcp://a:1883", "tcp://b:1883", "tcp://c:1883");
+		BrokerSelector selector = new BrokerSelector(brokers, Strategy.ROUND_ROBIN);
+
+		String first = selector.order().get(0);
+		String second = selector.order().get(0);
+		assertNotEquals(first, second);
+		assertEquals(3, selector.order().size());
+	}
+
+	@Test
+	void failedBrokerIsTriedLast() {
+
+		List<String> brokers = List.of("tcp://a:1883", "tcp://b:1883");
+		BrokerSelector selector = new BrokerSelector(brokers, Strategy.ROUND_ROBIN);
+
+		selector.markFailed("tcp://a:1883");
+		for (int i = 0; i < 4; i++) {
+			assertEquals(List.of("tcp://b:1883", "tcp://a:1883"), selector.order());
+		}
+
+		selector.markHealthy("tcp://a:1883");
+		assertTrue(selector.order().contains("tcp://a:1883"));
+	}
+
+	@Test
+	void leastLatencyFailsOverWhenABrokerGoesAway() throws Exception {
+
+		// Local stand-ins for two brokers
+		try (ServerSocket first = new ServerSocket(0); ServerSocket second = new ServerSocket(0)) {
+
+			String a = String.format("tcp://localhost:%d", first.getLocalPort());
+			String b = String.format("tcp://localhost:%d", second.getLocalPort());
+			BrokerSelector selector = new BrokerSelector(List.of(a, b), Strategy.LEAST_LATENCY);
+
+			assertEquals(2, selector.order().size());
+			assertTrue(BrokerSelector.probe(a, BrokerSelector.PROBE_TIMEOUT) >= 0);
+
+			// The first broker goes away
+			first.close();
+
+			assertEquals(-1, BrokerSelector.probe(a, BrokerSelector.PROBE_TIMEOUT));
+			assertEquals(List.of(b, a), selector.order());
+			assertTrue(selector.isFailed(a));
+		}
+	}
+
+	@Test
+	void brokersAreReadFromTheConfiguration() throws Exception {
+
+		Path config = dir.resolve("requestor.json");
+		Files.writeString(config, "{ \"mqtt\": { \"servers\": [ \"tcp://a:1883\", \"tcp://b:1883\" ], \"balance\": \"least-latency\" } }");
+
+		BrokerSelector selector = BrokerSelector.read(config.toString(), null);
+		assertEquals(List.of("tcp://a:1883", "tcp://b:1883"), selector.getBrokers());
+	}
+}
@@ -0,0 +1,22 @@
+package com.rsmaxwell.diaries.request.client;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.eclipse.paho.mqttv5.client.MqttClientException;
+import org.eclipse.paho.mqttv5.common.MqttException;
+import org.eclipse.paho.mqttv5.common.packet.MqttReturnCode;
+import org.junit.jupiter.api.Test;
+
+class ConnectionTest {
+
+	@Test
+	void onlyUnreachableBrokersAreTreatedAsFailed() {
+		assertTrue(Connection.isUnreachable(new MqttException(MqttClientException.REASON_CODE_SERVER_CONNECT_ERROR)));
+		assertTrue(Connection.isUnreachable(new MqttException(MqttClientException.REASON_CODE_CLIENT_TIMEOUT)));
+		assertTrue(Connection.isUnreachable(new MqttException(MqttReturnCode.RETURN_CODE_SERVER_BUSY)));
+
+		assertFalse(Connection.isUnreachable(new MqttException(MqttReturnCode.RETURN_CODE_BAD_USERNAME_OR_PASSWORD)));
+		assertFalse(Connection.isUnreachable(new MqttException(MqttReturnCode.RETURN_CODE_NOT_AUTHORIZED)));
+	}
+}
@@ -0,0 +1,119 @@
+package com.rsmaxwell.diaries.request.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class LaneTest {
+
+	@Test
+	void saturatedBulkLaneDoesNotDelayInteractiveCalls() throws Exception {
+
+		CountDownLatch release = new CountDownLatch(1);
+		Lane interactive = new Lane((topic, bytes) -> null, "request", Lanes.INTERACTIVE_BUDGET);
+		Lane bulk = new Lane((topic, bytes) -> {
+			release.await();
+			return null;
+		}, "request", Lanes.BULK_BUDGET);
+		new Lanes(interactive, bulk);
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			List<Future<?>> futures = new ArrayList<Future<?>>();
+			for (int i = 0; i < 2 * Lanes.BULK_BUDGET; i++) {
+				futures.add(executor.submit(() -> bulk.call(new byte[0])));
+			}
+			while (bulk.getInFlight() < Lanes.BULK_BUDGET || bulk.getQueued() < Lanes.BULK_BUDGET) {
+				Thread.sleep(1);
+			}
+			assertTrue(bulk.isBusy());
+
+			long start = System.nanoTime();
+			interactive.call(new byte[0]);
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+
+			release.countDown();
+			for (Future<?> future : futures) {
+				future.get(5, TimeUnit.SECONDS);
+			}
+			assertEquals(0, bulk.getInFlight());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void bulkLaneShrinksWhileInteractiveIsInFlight() throws Exception {
+
+		CountDownLatch release = new CountDownLatch(1);
+		Lane interactive = new Lane((topic, bytes) -> {
+			release.await();
+			return null;
+		}, "request", Lanes.INTERACTIVE_BUDGET);
+		Lane bulk = new Lane((topic, bytes) -> null, "request", Lanes.BULK_BUDGET);
+		new Lanes(interactive, bulk);
+
+		assertEquals(Lanes.BULK_BUDGET, bulk.getLimit());
+
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			Future<?> future = executor.submit(() -> interactive.call(new byte[0]));
+			while (interactive.getInFlight() == 0) {
+				Thread.sleep(1);
+			}
+			assertEquals(Lanes.BULK_BUDGET_WHILE_INTERACTIVE, bulk.getLimit());
+
+			release.countDown();
+			future.get(5, TimeUnit.SECONDS);
+			assertEquals(Lanes.BULK_BUDGET, bulk.getLimit());
+		} finally {
+			release.countDown();
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void lostReplyReleasesThePermitAfterTheTimeout() throws Exception {
+
+		CountDownLatch stopped = new CountDownLatch(2);
+		Lane lane = new Lane((topic, bytes) -> {
+			try {
+				new CountDownLatch(1).await();
+			} finally {
+				stopped.countDown();
+			}
+			return null;
+		}, "request", 1);
+		lane.setTimeout(50);
+
+		assertThrows(Exception.class, () -> lane.call(new byte[0]));
+		assertEquals(0, lane.getInFlight());
+		assertThrows(Exception.class, () -> lane.call(new byte[0]));
+
+		// No thread is left waiting for the lost replies, but they are still counted
+		assertTrue(stopped.await(5, TimeUnit.SECONDS));
+		assertEquals(2, lane.getUnanswered());
+	}
+
+	@Test
+	void coalescingDoesNotCrossPriorities() throws Exception {
+
+		Map<String, Object> args = Map.of("diary", 1L);
+
+		assertEquals(DiariesClient.key("getPages", args, Priority.BULK), DiariesClient.key("getPages", Map.of("diary", 1L), Priority.BULK));
+		assertNotEquals(DiariesClient.key("getPages", args, Priority.BULK), DiariesClient.key("getPages", args, Priority.INTERACTIVE));
+	}
+}
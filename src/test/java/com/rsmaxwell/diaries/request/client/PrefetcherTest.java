@@ -0,0 +1,138 @@
+package com.rsmaxwell.diaries.request.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+class PrefetcherTest {
+
+	private final List<String> loads = Collections.synchronizedList(new ArrayList<String>());
+	private final AtomicBoolean busy = new AtomicBoolean(false);
+
+	private Prefetcher<Integer, String> prefetcher(int capacity) {
+
+		Prefetcher.Loader<Integer, String> loader = (key, priority) -> {
+			loads.add(String.format("%d:%s", key, priority));
+			return String.format("pages of %d", key);
+		};
+
+		// Run the prefetches on the calling thread, so the test can see them straight away
+		return new Prefetcher<Integer, String>(loader, key -> List.of(key + 1, key - 1), busy::get, capacity, 60_000, Runnable::run);
+	}
+
+	@Test
+	void nextItemIsPrefetchedAtBulkPriority() throws Exception {
+
+		Prefetcher<Integer, String> prefetcher = prefetcher(10);
+
+		assertEquals("pages of 5", prefetcher.get(5));
+		assertEquals(List.of("5:INTERACTIVE", "6:BULK", "4:BULK"), loads);
+
+		assertEquals("pages of 6", prefetcher.get(6));
+		assertEquals(1, prefetcher.getHits());
+		assertEquals(1, prefetcher.getMisses());
+		assertEquals(0.5, prefetcher.getHitRate(), 1e-9);
+
+		// Only 7 was new
+		assertEquals("7:BULK", loads.get(loads.size() - 1));
+		assertEquals(4, loads.size());
+	}
+
+	@Test
+	void prefetchStopsWhileBusy() throws Exception {
+
+		Prefetcher<Integer, String> prefetcher = prefetcher(10);
+		busy.set(true);
+
+		prefetcher.get(5);
+		assertEquals(List.of("5:INTERACTIVE"), loads);
+		assertEquals(2, prefetcher.getSkipped());
+
+		busy.set(false);
+		prefetcher.get(5);
+		assertEquals(3, loads.size());
+	}
+
+	@Test
+	void cacheIsBoundedAndCountsUnusedPrefetches() throws Exception {
+
+		Prefetcher<Integer, String> prefetcher = prefetcher(3);
+
+		prefetcher.get(10);
+		prefetcher.get(20);
+		prefetcher.get(30);
+
+		// 11, 9, 21 and 19 were evicted without being read; 31 and 29 are still cached
+		assertEquals(6, prefetcher.getPrefetched());
+		assertEquals(4, prefetcher.getWasted());
+
+		prefetcher.close();
+		assertEquals(6, prefetcher.getWasted());
+	}
+
+	@Test
+	void queuedPrefetchIsDroppedWhenTheUserGetsThere() throws Exception {
+
+		List<Runnable> queued = new ArrayList<Runnable>();
+		Prefetcher.Loader<Integer, String> loader = (key, priority) -> {
+			loads.add(String.format("%d:%s", key, priority));
+			return String.format("pages of %d", key);
+		};
+		Prefetcher<Integer, String> prefetcher = new Prefetcher<Integer, String>(loader, key -> List.of(key + 1), busy::get, 10, 60_000, queued::add);
+
+		prefetcher.get(5);
+		prefetcher.get(6);
+		for (Runnable task : new ArrayList<Runnable>(queued)) {
+			task.run();
+		}
+
+		// 6 was never sent at bulk priority, only 7 was
+		assertEquals(List.of("5:INTERACTIVE", "6:INTERACTIVE", "7:BULK"), loads);
+		assertEquals(0, prefetcher.getWasted());
+	}
+
+	@Test
+	void sentPrefetchIsJoinedRatherThanRepeated() throws Exception {
+
+		CountDownLatch sent = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<Runnable> queued = new ArrayList<Runnable>();
+		Prefetcher.Loader<Integer, String> loader = (key, priority) -> {
+			loads.add(String.format("%d:%s", key, priority));
+			if (priority == Priority.BULK) {
+				sent.countDown();
+				release.await();
+			}
+			return String.format("pages of %d", key);
+		};
+		Prefetcher<Integer, String> prefetcher = new Prefetcher<Integer, String>(loader, key -> List.of(key + 1), busy::get, 10, 60_000, queued::add);
+
+		prefetcher.get(5);
+		Thread thread = new Thread(queued.get(0));
+		thread.start();
+		assertTrue(sent.await(5, TimeUnit.SECONDS));
+
+		new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+			release.countDown();
+		}).start();
+
+		assertEquals("pages of 6", prefetcher.get(6));
+		thread.join(5000);
+
+		assertEquals(List.of("5:INTERACTIVE", "6:BULK"), loads);
+		assertEquals(1, prefetcher.getHits());
+		assertEquals(0, prefetcher.getWasted());
+	}
+}
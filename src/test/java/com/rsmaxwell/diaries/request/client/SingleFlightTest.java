@@ -0,0 +1,69 @@
+package com.rsmaxwell.diaries.request.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+	@Test
+	void concurrentCallsShareOneExecution() throws Exception {
+
+		SingleFlight<String, Object> flights = new SingleFlight<String, Object>();
+		AtomicInteger calls = new AtomicInteger();
+		Object result = new Object();
+
+		int threads = 8;
+		CountDownLatch started = new CountDownLatch(threads);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Object>> futures = new ArrayList<Future<Object>>();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(() -> {
+					started.countDown();
+					return flights.execute("getDiaries", () -> {
+						calls.incrementAndGet();
+
+						// Don't finish until every other caller has joined this flight
+						started.await();
+						while (flights.getWaiters("getDiaries") < threads - 1) {
+							Thread.sleep(1);
+						}
+						return result;
+					});
+				}));
+			}
+
+			for (Future<Object> future : futures) {
+				assertSame(result, future.get(5, TimeUnit.SECONDS));
+			}
+			assertEquals(1, calls.get());
+			assertEquals(0, flights.size());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void failureIsNotCached() throws Exception {
+
+		SingleFlight<String, String> flights = new SingleFlight<String, String>();
+
+		assertThrows(IllegalStateException.class, () -> flights.execute("getPages", () -> {
+			throw new IllegalStateException("broker unavailable");
+		}));
+
+		assertEquals("ok", flights.execute("getPages", () -> "ok"));
+	}
+}
@@ -0,0 +1,94 @@
+package com.rsmaxwell.diaries.request.index;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.rsmaxwell.diaries.request.model.Page;
+
+class PageIndexTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void findsPagesByDateRangeAndPrefix() throws Exception {
+
+		PageIndex index = new PageIndex();
+		index.update(1L, pages(10, "1893-02-14", "1893-02-15", "1893-03-01", "cover"));
+		index.update(2L, pages(20, "1894-01-01"));
+
+		assertEquals(5, index.size());
+		assertEquals(11L, index.find(LocalDate.of(1893, 2, 15)).get(0).getId());
+		assertEquals(3, index.find(LocalDate.of(1893, 2, 1), LocalDate.of(1893, 3, 31)).size());
+		assertEquals(3, index.findByPrefix("1893").size());
+		assertEquals(2, index.findByPrefix("1893-02").size());
+		assertTrue(index.findByPrefix("1895").isEmpty());
+	}
+
+	@Test
+	void updateReplacesTheDiarysPages() throws Exception {
+
+		PageIndex index = new PageIndex();
+		index.update(1L, pages(10, "1893-02-14", "1893-02-15"));
+		index.update(1L, pages(30, "1893-02-15"));
+
+		assertEquals(1, index.size());
+		assertTrue(index.find(LocalDate.of(1893, 2, 14)).isEmpty());
+		assertEquals(30L, index.find(LocalDate.of(1893, 2, 15)).get(0).getId());
+	}
+
+	@Test
+	void resultsAreNotChangedByLaterUpdates() throws Exception {
+
+		PageIndex index = new PageIndex();
+		index.update(1L, pages(10, "1893-02-14"));
+
+		List<PageEntry> found = index.find(LocalDate.of(1893, 2, 14));
+		index.update(2L, pages(20, "1893-02-14"));
+		index.update(1L, pages(30, "cover"));
+
+		assertEquals(1, found.size());
+		assertEquals(10L, found.get(0).getId());
+	}
+
+	@Test
+	void indexSurvivesARestart() throws Exception {
+
+		Path path = dir.resolve("pages.json");
+
+		PageIndex index = new PageIndex();
+		index.update(1L, pages(10, "1893-02-14", "1893-02-15"));
+		index.write(path);
+
+		PageIndex reloaded = PageIndex.read(path);
+		assertEquals(2, reloaded.size());
+		assertEquals(1L, reloaded.find(LocalDate.of(1893, 2, 14)).get(0).getDiary());
+	}
+
+	@Test
+	void datesAreExtractedFromNames() {
+		assertEquals(LocalDate.of(1893, 2, 14), PageIndex.dateOf("diary-1893_02_14.jpg"));
+		assertEquals(LocalDate.of(1893, 2, 14), PageIndex.dateOf("18930214"));
+		assertNull(PageIndex.dateOf("1893-13-45"));
+		assertNull(PageIndex.dateOf("cover"));
+	}
+
+	private static List<Page> pages(long firstId, String... names) throws Exception {
+		List<Page> pages = new ArrayList<Page>();
+		long id = firstId;
+		for (String name : names) {
+			pages.add(new Page(Map.of("id", id++, "name", name)));
+		}
+		return pages;
+	}
+}
@@ -0,0 +1,167 @@
+package com.rsmaxwell.diaries.request.outbox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OutboxTest {
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void pendingWritesSurviveReopening() throws Exception {
+
+		Outbox outbox = new Outbox(directory);
+		String first = outbox.submit("page:1", "putTranscription", Map.of("page", 1, "html", "a"));
+		String second = outbox.submit("page:1", "putTranscription", Map.of("page", 1, "html", "b"));
+		String third = outbox.submit("page:2", "putTranscription", Map.of("page", 2, "html", "c"));
+		outbox.acknowledge(first);
+		outbox.close();
+
+		Outbox reopened = new Outbox(directory);
+		List<OutboxEntry> pending = reopened.getPending();
+		assertEquals(2, pending.size());
+		assertEquals(second, pending.get(0).getKey());
+		assertEquals("b", pending.get(0).getArgs().get("html"));
+		assertEquals(third, pending.get(1).getKey());
+		reopened.close();
+	}
+
+	@Test
+	void batchKeepsEachEntityInOrder() throws Exception {
+
+		Outbox outbox = new Outbox(directory);
+		outbox.setBatchSize(3);
+		String a1 = outbox.submit("a", "f", Map.of());
+		String b1 = outbox.submit("b", "f", Map.of());
+		String a2 = outbox.submit("a", "f", Map.of());
+		outbox.submit("a", "f", Map.of());
+
+		Map<String, List<OutboxEntry>> batch = outbox.nextBatch();
+		assertEquals(List.of("a", "b"), List.copyOf(batch.keySet()));
+		assertEquals(a1, batch.get("a").get(0).getKey());
+		assertEquals(a2, batch.get("a").get(1).getKey());
+		assertEquals(1, batch.get("b").size());
+		assertEquals(b1, batch.get("b").get(0).getKey());
+		outbox.close();
+	}
+
+	@Test
+	void journalIsTruncatedWhenNothingIsPending() throws Exception {
+
+		Outbox outbox = new Outbox(directory);
+		String key = outbox.submit("user:fred", "register", Map.of("username", "fred"));
+		outbox.reject("unknown");
+		assertTrue(Files.size(directory.resolve("journal.jsonl")) > 0);
+
+		outbox.acknowledge(key);
+		assertEquals(0, Files.size(directory.resolve("journal.jsonl")));
+		outbox.close();
+	}
+
+	@Test
+	void tornLastRecordIsIgnored() throws Exception {
+
+		Outbox outbox = new Outbox(directory);
+		String key = outbox.submit("user:fred", "register", Map.of("username", "fred"));
+		outbox.close();
+
+		Files.write(directory.resolve("journal.jsonl"), "{\"type\":\"ack\",\"ke".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+		Outbox reopened = new Outbox(directory);
+		assertEquals(1, reopened.size());
+		assertEquals(key, reopened.getPending().get(0).getKey());
+		reopened.close();
+	}
+
+	@Test
+	void onlyRealRefusalsAreGivenUp() {
+
+		assertEquals(Outbox.Outcome.REFUSED, Outbox.classify(Map.of("code", 400, "message", "username already exists")));
+		assertEquals(Outbox.Outcome.REFUSED, Outbox.classify(Map.of("message", "version conflict")));
+
+		assertEquals(Outbox.Outcome.UNAUTHORISED, Outbox.classify(Map.of("code", 401, "message", "Unauthorized")));
+		assertEquals(Outbox.Outcome.UNAUTHORISED, Outbox.classify(Map.of("message", "Access token has expired")));
+
+		assertEquals(Outbox.Outcome.TRANSIENT, Outbox.classify(Map.of("code", 503, "message", "Service Unavailable")));
+		assertEquals(Outbox.Outcome.TRANSIENT, Outbox.classify(Map.of("message", "database busy, try again")));
+
+		// The code decides when there is one, and only whole words of the message count
+		assertEquals(Outbox.Outcome.REFUSED, Outbox.classify(Map.of("code", 400, "message", "token is malformed")));
+		assertEquals(Outbox.Outcome.REFUSED, Outbox.classify(Map.of("message", "designing pages is not allowed")));
+		assertEquals(Outbox.Outcome.REFUSED, Outbox.classify(Map.of("message", "tokenizer failed")));
+	}
+
+	@Test
+	void failingWriteBacksOffAndIsGivenUp() throws Exception {
+
+		Outbox outbox = new Outbox(directory);
+		outbox.setMaxAttempts(3);
+		String a1 = outbox.submit("a", "f", Map.of());
+		String a2 = outbox.submit("a", "f", Map.of());
+		String b1 = outbox.submit("b", "f", Map.of());
+
+		// While a1 waits to be retried, a2 waits behind it, but b is not held up
+		outbox.retry(a1);
+		assertEquals(List.of("b"), List.copyOf(outbox.nextBatch().keySet()));
+		outbox.close();
+
+		// The attempts survive reopening
+		Outbox reopened = new Outbox(directory);
+		reopened.setMaxAttempts(3);
+		assertEquals(1, reopened.getPending().get(0).getAttempts());
+		reopened.retry(a1);
+		reopened.retry(a1);
+		assertEquals(List.of(a2, b1), reopened.getPending().stream().map(OutboxEntry::getKey).toList());
+		reopened.close();
+
+		assertEquals(1_000, Outbox.backoff(1));
+		assertEquals(4_000, Outbox.backoff(3));
+		assertEquals(Outbox.MAX_BACKOFF, Outbox.backoff(40));
+	}
+
+	@Test
+	void passwordsAreNotJournaled() throws Exception {
+
+		Outbox outbox = new Outbox(directory);
+		outbox.submit("user:fred", "register", Map.of("username", "fred", "password", "secret"));
+		assertEquals("secret", outbox.getPending().get(0).getArgs().get("password"));
+		outbox.close();
+
+		String journal = new String(Files.readAllBytes(directory.resolve("journal.jsonl")), StandardCharsets.UTF_8);
+		assertTrue(journal.contains("fred"));
+		assertFalse(journal.contains("secret"));
+
+		// Without its password the registration cannot be sent, so it is dropped
+		Outbox reopened = new Outbox(directory);
+		assertEquals(0, reopened.size());
+		reopened.close();
+	}
+
+	@Test
+	void journalIsPrivate() throws Exception {
+
+		Assumptions.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+
+		Outbox outbox = new Outbox(directory);
+		outbox.submit("user:fred", "register", Map.of("username", "fred", "password", "secret"));
+		outbox.close();
+
+		assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory.resolve("journal.jsonl"))));
+		assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+	}
+}
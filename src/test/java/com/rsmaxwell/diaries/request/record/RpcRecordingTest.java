@@ -0,0 +1,87 @@
+package com.rsmaxwell.diaries.request.record;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.rsmaxwell.diaries.request.record.RpcRecording.Exchange;
+
+class RpcRecordingTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void recordingIsReadBackAcrossSessions() throws Exception {
+
+		Path path = dir.resolve("recording.bin");
+
+		try (RpcRecorder recorder = new RpcRecorder(path)) {
+			long a = recorder.recordRequest("request", "getDiaries", bytes("{\"function\":\"getDiaries\"}"));
+			long b = recorder.recordRequest("request", "getPages", bytes("{\"function\":\"getPages\"}"));
+			recorder.recordResponse(b, bytes("pages"));
+			recorder.recordResponse(a, bytes("diaries"));
+		}
+
+		// A second run appends a new session whose sequence numbers start again
+		try (RpcRecorder recorder = new RpcRecorder(path)) {
+			recorder.recordRequest("request", null, bytes("{\"function\":\"quit\"}"));
+		}
+
+		List<Exchange> exchanges = RpcRecording.read(path);
+		assertEquals(3, exchanges.size());
+
+		assertArrayEquals(bytes("diaries"), exchanges.get(0).getResponse());
+		assertArrayEquals(bytes("pages"), exchanges.get(1).getResponse());
+		assertTrue(exchanges.get(0).getLatencyNanos() >= 0);
+
+		assertEquals("request", exchanges.get(2).getTopic());
+		assertFalse(exchanges.get(2).hasResponse());
+
+		assertEquals("getDiaries", exchanges.get(0).getFunction());
+		assertNull(exchanges.get(2).getFunction());
+		assertEquals(1, exchanges.get(1).getSession());
+		assertEquals(2, exchanges.get(2).getSession());
+	}
+
+	@Test
+	void secretsAreNotWritten() throws Exception {
+
+		Path path = dir.resolve("recording.bin");
+
+		try (RpcRecorder recorder = new RpcRecorder(path)) {
+			String request = "{\"function\":\"signin\",\"args\":{\"username\":\"fred\",\"password\":\"secret\"}}";
+			long id = recorder.recordRequest("request", "signin", bytes(request));
+			// The signin reply payload is itself a json string
+			String reply = "{\"status\":{\"code\":200},\"payload\":\"{\\\"accessToken\\\":\\\"abc\\\",\\\"refreshToken\\\":\\\"def\\\"}\"}";
+			recorder.recordResponse(id, bytes(reply));
+		}
+
+		String contents = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+		assertFalse(contents.contains("secret"));
+		assertFalse(contents.contains("abc"));
+		assertFalse(contents.contains("def"));
+		assertTrue(contents.contains("fred"));
+
+		Exchange exchange = RpcRecording.read(path).get(0);
+		assertTrue(new String(exchange.getResponse(), StandardCharsets.UTF_8).contains(Redactor.REDACTED));
+
+		byte[] restored = Redactor.restoreAccessToken(bytes("{\"args\":{\"accessToken\":\"[redacted]\"}}"), "xyz");
+		assertEquals("{\"args\":{\"accessToken\":\"xyz\"}}", new String(restored, StandardCharsets.UTF_8));
+		assertTrue(new String(exchange.getRequest(), StandardCharsets.UTF_8).contains(Redactor.REDACTED));
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,71 @@
+package com.rsmaxwell.diaries.request.soak;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class TrendTest {
+
+	@Test
+	void steadyMetricWithNoiseIsNotGrowing() {
+
+		Random random = new Random(1);
+		Trend trend = new Trend("heap after GC", "MB", 16, 8);
+		for (int i = 0; i < 240; i++) {
+			trend.add(i * 60, 200 + random.nextGaussian() * 10);
+		}
+
+		assertFalse(trend.isGrowing(0.1));
+	}
+
+	@Test
+	void warmUpIsIgnored() {
+
+		Trend trend = new Trend("threads", "", 4, 2);
+		for (int i = 0; i < 100; i++) {
+			trend.add(i, (i < 25) ? i : 25);
+		}
+
+		assertFalse(trend.isGrowing(0.1));
+		assertEquals(0, trend.slope(), 1e-9);
+	}
+
+	@Test
+	void leakIsGrowing() {
+
+		// One more unanswered request every minute, for four hours
+		Trend trend = new Trend("unanswered requests", "", 10, 5);
+		for (int i = 0; i < 240; i++) {
+			trend.add(i * 60, i);
+		}
+
+		assertTrue(trend.isGrowing(0.1));
+	}
+
+	@Test
+	void singleLostReplyIsNotGrowing() {
+
+		Trend trend = new Trend("unanswered requests", "", 10, 5);
+		for (int i = 0; i < 240; i++) {
+			trend.add(i * 60, (i < 100) ? 0 : 1);
+		}
+
+		assertFalse(trend.isGrowing(0.1));
+	}
+
+	@Test
+	void growthWhichStopsIsNotSustained() {
+
+		// Rises by 40 early in the steady part, then stays level
+		Trend trend = new Trend("threads", "", 4, 2);
+		for (int i = 0; i < 240; i++) {
+			trend.add(i * 60, 20 + Math.min(40, Math.max(0, i - 60)));
+		}
+
+		assertFalse(trend.isGrowing(0.1));
+	}
+}
@@ -0,0 +1,54 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class PatchTest {
+
+	@Test
+	void patchTurnsBaseIntoTarget() {
+
+		String base = "<p>Went to church in the morning.</p>";
+		String target = "<p>Went to chapel in the morning with Mary.</p>";
+
+		Patch patch = Patch.diff(base, target);
+		assertEquals(target, patch.apply(base));
+	}
+
+	@Test
+	void patchSizeDependsOnTheEditNotTheFragment() {
+
+		String base = "<p>line</p>".repeat(10_000);
+		String target = base.substring(0, 50_000) + "<b>new</b>" + base.substring(50_000);
+
+		Patch patch = Patch.diff(base, target);
+		assertEquals("<b>new</b>", patch.getInsert());
+		assertEquals(0, patch.getDelete());
+		assertEquals(target, patch.apply(base));
+	}
+
+	@Test
+	void identicalTextGivesAnEmptyPatch() {
+		assertTrue(Patch.diff("<p>same</p>", "<p>same</p>").isEmpty());
+	}
+
+	@Test
+	void surrogatePairsAreNotSplit() {
+
+		String base = "a\uD83D\uDE00b";
+		String target = "a\uD83D\uDE01b";
+
+		Patch patch = Patch.diff(base, target);
+		assertEquals(1, patch.getOffset());
+		assertEquals("\uD83D\uDE01", patch.getInsert());
+		assertEquals(target, patch.apply(base));
+	}
+
+	@Test
+	void patchWhichDoesNotFitIsRejected() {
+		assertThrows(IllegalArgumentException.class, () -> new Patch(5, 10, "x").apply("short"));
+	}
+}
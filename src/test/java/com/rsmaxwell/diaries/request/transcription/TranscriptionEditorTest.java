@@ -0,0 +1,128 @@
+package com.rsmaxwell.diaries.request.transcription;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TranscriptionEditorTest {
+
+	@TempDir
+	Path dir;
+
+	/**
+	 * A responder holding one page, which checks versions as the real one does
+	 */
+	static class FakeService implements TranscriptionService {
+
+		long version = 1;
+		String html = "<p>Monday</p>";
+		List<String> calls = new ArrayList<String>();
+
+		@Override
+		public Transcription get(Long page) {
+			calls.add("get");
+			return new Transcription(page, version, html);
+		}
+
+		@Override
+		public Long patch(Long page, Long base, Patch patch) throws RejectedException {
+			calls.add("patch");
+			if (base != version) {
+				throw new RejectedException("version conflict");
+			}
+			html = patch.apply(html);
+			return ++version;
+		}
+
+		@Override
+		public Long put(Long page, Long expected, String html) throws RejectedException {
+			calls.add("put");
+			if (expected != null && expected != version) {
+				throw new RejectedException("version conflict");
+			}
+			this.html = html;
+			return ++version;
+		}
+	}
+
+	@Test
+	void saveSendsAPatchAndKeepsTheNewBase() throws Exception {
+
+		FakeService service = new FakeService();
+		TranscriptionEditor editor = new TranscriptionEditor(service, dir);
+
+		editor.load(7L);
+		assertEquals(2L, editor.save(7L, "<p>Monday, rain</p>"));
+		assertEquals(3L, editor.save(7L, "<p>Monday, heavy rain</p>"));
+
+		assertEquals(List.of("get", "patch", "patch"), service.calls);
+		assertEquals("<p>Monday, heavy rain</p>", service.html);
+		assertEquals(3L, Transcription.read(dir, 7L).getVersion());
+	}
+
+	@Test
+	void withoutABaseTheWholeFragmentIsPut() throws Exception {
+
+		FakeService service = new FakeService();
+		TranscriptionEditor editor = new TranscriptionEditor(service, dir);
+
+		assertEquals(2L, editor.save(7L, "<p>Tuesday</p>"));
+		assertEquals(List.of("put"), service.calls);
+		assertEquals(2L, Transcription.read(dir, 7L).getVersion());
+	}
+
+	@Test
+	void unappliedPatchFallsBackToAPutAtTheBaseVersion() throws Exception {
+
+		FakeService service = new FakeService();
+		TranscriptionEditor editor = new TranscriptionEditor(service, dir);
+		editor.load(7L);
+
+		// The patch cannot be applied, but the page is still at the base version
+		TranscriptionService refusesPatches = new TranscriptionService() {
+			@Override
+			public Transcription get(Long page) {
+				return service.get(page);
+			}
+
+			@Override
+			public Long patch(Long page, Long version, Patch patch) throws UnappliedPatchException {
+				throw new UnappliedPatchException("offset out of range");
+			}
+
+			@Override
+			public Long put(Long page, Long version, String html) throws RejectedException {
+				return service.put(page, version, html);
+			}
+		};
+		editor = new TranscriptionEditor(refusesPatches, dir);
+
+		assertEquals(2L, editor.save(7L, "<p>Monday, rain</p>"));
+		assertEquals("<p>Monday, rain</p>", service.html);
+		assertEquals(2L, Transcription.read(dir, 7L).getVersion());
+	}
+
+	@Test
+	void newerVersionIsNotOverwritten() throws Exception {
+
+		FakeService service = new FakeService();
+		TranscriptionEditor editor = new TranscriptionEditor(service, dir);
+		editor.load(7L);
+
+		// Someone else saves in the meantime
+		service.put(7L, null, "<p>Monday, sunny</p>");
+
+		assertThrows(RejectedException.class, () -> editor.save(7L, "<p>Monday, rain</p>"));
+		assertEquals("<p>Monday, sunny</p>", service.html);
+
+		// A conflict is not retried as a put, which would be rejected for the same reason
+		assertEquals(List.of("get", "put", "patch"), service.calls);
+		assertEquals(1L, Transcription.read(dir, 7L).getVersion());
+	}
+}
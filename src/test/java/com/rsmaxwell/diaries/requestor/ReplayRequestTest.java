@@ -0,0 +1,46 @@
+package com.rsmaxwell.diaries.requestor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.rsmaxwell.diaries.request.record.RpcRecorder;
+import com.rsmaxwell.diaries.request.record.RpcRecording;
+import com.rsmaxwell.diaries.request.record.RpcRecording.Exchange;
+
+class ReplayRequestTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void onlyReadsAreSelectedUnlessWritesAreAllowed() throws Exception {
+
+		Path path = dir.resolve("recording.bin");
+
+		try (RpcRecorder recorder = new RpcRecorder(path)) {
+			recorder.recordRequest("request", "getDiaries", bytes("{\"function\":\"getDiaries\"}"));
+			recorder.recordRequest("request", null, bytes("{\"function\":\"quit\"}"));
+			recorder.recordRequest("request", "putTranscription", bytes("{\"function\":\"putTranscription\"}"));
+			recorder.recordRequest("request", "getPages", bytes("{\"function\":\"getPages\"}"));
+		}
+
+		List<Exchange> recording = RpcRecording.read(path);
+
+		List<Exchange> reads = ReplayRequest.select(recording, false);
+		assertEquals(2, reads.size());
+		assertEquals("getDiaries", reads.get(0).getFunction());
+		assertEquals("getPages", reads.get(1).getFunction());
+
+		assertEquals(4, ReplayRequest.select(recording, true).size());
+	}
+
+	private static byte[] bytes(String text) {
+		return text.getBytes(StandardCharsets.UTF_8);
+	}
+}